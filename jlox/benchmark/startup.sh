@@ -0,0 +1,36 @@
+#!/usr/bin/env bash
+# Compares the startup of a script run from source with the same script
+# compiled by Loxc: the time until the first line of output and until the
+# process exits, averaged over a number of runs.
+#
+# Usage: benchmark/startup.sh [script] [runs]
+# Run from the directory the classes were compiled to, e.g. jlox/.
+set -e
+
+script=${1:-benchmark/inheritance.lox}
+runs=${2:-10}
+jar=$(mktemp --suffix=.jar)
+trap 'rm -f "$jar"' EXIT
+
+java -cp . com.craftinginterpreters.lox.Loxc -o "$jar" "$script"
+
+now() { date +%s%N; }
+
+measure() {
+  local label=$1; shift
+  local first=0 total=0
+  local stamp=$(mktemp)
+  for ((i = 0; i < runs; i++)); do
+    local start=$(now)
+    "$@" | { read -r line; now > "$stamp"; cat > /dev/null; }
+    local done=$(now)
+    first=$((first + $(cat "$stamp") - start))
+    total=$((total + done - start))
+  done
+  rm -f "$stamp"
+  printf "%-8s first output %6d ms, exit %6d ms\n" "$label" \
+    $((first / runs / 1000000)) $((total / runs / 1000000))
+}
+
+measure source java -cp . com.craftinginterpreters.lox.Lox "$script"
+measure jar java -jar "$jar"
@@ -0,0 +1,506 @@
+package com.craftinginterpreters.lox;
+
+// The operation a Binary expression performs on its evaluated operands. A
+// Binary starts out without a node and installs the variant specialized for
+// the operand types it sees first. When a later execution sees other types,
+// the specialized node rewrites itself to the generic one, which handles
+// every case and never rewrites again. Stable nodes thereby keep executing
+// one small piece of code that HotSpot can inline. Nodes specialized for
+// numbers evaluate their operands as primitive doubles, see
+// Interpreter.evaluateDouble, and box only the result they hand back to
+// code that is not specialized for numbers. Whole numbers of which one is
+// computed as a long already get nodes that compute with longs instead, see
+// Interpreter.evaluateLong. Those widen to the node for numbers once an
+// operand or the result is not a whole number within Interpreter.MAX_INTEGER.
+abstract class BinaryNode {
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    // Evaluates the operands and applies the node to them
+    Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+        Object left = interpreter.evaluate(expr.left);
+        Object right = interpreter.evaluate(expr.right);
+        return execute(expr, left, right);
+    }
+
+    static BinaryNode specialize(Expr.Binary expr, Object left, Object right, boolean integers) {
+        if (integers && Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+            switch (expr.operator.type) {
+                case PLUS: return new AddIntegers();
+                case MINUS: return new SubtractIntegers();
+                case STAR: return new MultiplyIntegers();
+                case GREATER: return new GreaterIntegers();
+                case GREATER_EQUAL: return new GreaterEqualIntegers();
+                case LESS: return new LessIntegers();
+                case LESS_EQUAL: return new LessEqualIntegers();
+                default: break;
+            }
+        }
+
+        return specializeWithoutIntegers(expr, left, right);
+    }
+
+    private static BinaryNode specializeWithoutIntegers(Expr.Binary expr, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+
+        switch (expr.operator.type) {
+            case PLUS:
+                if (numbers) return new AddNumbers();
+                if (left instanceof LoxString && right instanceof LoxString) return new ConcatenateStrings();
+                break;
+            case MINUS:
+                if (numbers) return new SubtractNumbers();
+                break;
+            case STAR:
+                if (numbers) return new MultiplyNumbers();
+                break;
+            case SLASH:
+                if (numbers) return new DivideNumbers();
+                break;
+            case GREATER:
+                if (numbers) return new GreaterNumbers();
+                break;
+            case GREATER_EQUAL:
+                if (numbers) return new GreaterEqualNumbers();
+                break;
+            case LESS:
+                if (numbers) return new LessNumbers();
+                break;
+            case LESS_EQUAL:
+                if (numbers) return new LessEqualNumbers();
+                break;
+            default:
+                break;
+        }
+
+        return new Generic();
+    }
+
+    // Called by a specialized node whose operands are not of its types
+    static Object generalize(Expr.Binary expr, Object left, Object right) {
+        expr.node = new Generic();
+        return expr.node.execute(expr, left, right);
+    }
+
+    // Called by a node specialized for whole numbers whose operands or result
+    // are not whole numbers, it continues with the node for the operands
+    static Object widen(Expr.Binary expr, Object left, Object right) {
+        expr.node = specializeWithoutIntegers(expr, left, right);
+        return expr.node.execute(expr, left, right);
+    }
+
+    // Evaluate the operands of a node specialized for numbers. When one is
+    // not a number, the node generalizes and throws its result, which is not
+    // a number either, on to the node that evaluates this one.
+    static double leftDouble(Interpreter interpreter, Expr.Binary expr) {
+        try {
+            return interpreter.evaluateDouble(expr.left);
+        } catch (UnexpectedValue unexpected) {
+            Object right = interpreter.evaluate(expr.right);
+            throw new UnexpectedValue(generalize(expr, unexpected.value, right));
+        }
+    }
+
+    static double rightDouble(Interpreter interpreter, Expr.Binary expr, double left) {
+        try {
+            return interpreter.evaluateDouble(expr.right);
+        } catch (UnexpectedValue unexpected) {
+            throw new UnexpectedValue(generalize(expr, left, unexpected.value));
+        }
+    }
+
+    // Evaluate the operands of a node specialized for whole numbers, like
+    // leftDouble and rightDouble, but the node widens instead
+    static long leftLong(Interpreter interpreter, Expr.Binary expr) {
+        try {
+            return interpreter.evaluateLong(expr.left);
+        } catch (UnexpectedValue unexpected) {
+            Object right = interpreter.evaluate(expr.right);
+            throw new UnexpectedValue(widen(expr, unexpected.value, right));
+        }
+    }
+
+    static long rightLong(Interpreter interpreter, Expr.Binary expr, long left) {
+        try {
+            return interpreter.evaluateLong(expr.right);
+        } catch (UnexpectedValue unexpected) {
+            throw new UnexpectedValue(widen(expr, (double) left, unexpected.value));
+        }
+    }
+
+    // Arithmetic on numbers, whose result a node specialized for numbers can
+    // take as a primitive double
+    abstract static class Arithmetic extends BinaryNode {
+        abstract double executeDouble(Interpreter interpreter, Expr.Binary expr);
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class AddNumbers extends Arithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            double left = leftDouble(interpreter, expr);
+            return left + rightDouble(interpreter, expr, left);
+        }
+    }
+
+    static final class ConcatenateStrings extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof LoxString && right instanceof LoxString) {
+                return LoxString.concat((LoxString) left, (LoxString) right);
+            }
+            return generalize(expr, left, right);
+        }
+    }
+
+    static final class SubtractNumbers extends Arithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left - (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            double left = leftDouble(interpreter, expr);
+            return left - rightDouble(interpreter, expr, left);
+        }
+    }
+
+    static final class MultiplyNumbers extends Arithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left * (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            double left = leftDouble(interpreter, expr);
+            return left * rightDouble(interpreter, expr, left);
+        }
+    }
+
+    static final class DivideNumbers extends Arithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left / (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            double left = leftDouble(interpreter, expr);
+            return left / rightDouble(interpreter, expr, left);
+        }
+    }
+
+    static final class GreaterNumbers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left > (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left > rightDouble(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class GreaterEqualNumbers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left >= (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left >= rightDouble(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class LessNumbers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left < (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left < rightDouble(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class LessEqualNumbers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left <= (double) right;
+            }
+            return generalize(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                double left = leftDouble(interpreter, expr);
+                return left <= rightDouble(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    // Arithmetic on whole numbers, whose result a node specialized for whole
+    // numbers can take as a primitive long. When it is not a whole number in
+    // range, the node widens and throws the result as a double.
+    abstract static class IntegerArithmetic extends Arithmetic {
+        abstract long executeLong(Interpreter interpreter, Expr.Binary expr);
+
+        @Override
+        double executeDouble(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return executeLong(interpreter, expr);
+            } catch (UnexpectedValue unexpected) {
+                if (unexpected.value instanceof Double) return (double) unexpected.value;
+                throw unexpected;
+            }
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                return (double) executeLong(interpreter, expr);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class AddIntegers extends IntegerArithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left + (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        long executeLong(Interpreter interpreter, Expr.Binary expr) {
+            long left = leftLong(interpreter, expr);
+            long right = rightLong(interpreter, expr, left);
+            long sum = left + right;
+            if (Interpreter.inIntegerRange(sum)) return sum;
+            throw new UnexpectedValue(widen(expr, (double) left, (double) right));
+        }
+    }
+
+    static final class SubtractIntegers extends IntegerArithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left - (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        long executeLong(Interpreter interpreter, Expr.Binary expr) {
+            long left = leftLong(interpreter, expr);
+            long right = rightLong(interpreter, expr, left);
+            long difference = left - right;
+            if (Interpreter.inIntegerRange(difference)) return difference;
+            throw new UnexpectedValue(widen(expr, (double) left, (double) right));
+        }
+    }
+
+    static final class MultiplyIntegers extends IntegerArithmetic {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left * (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        long executeLong(Interpreter interpreter, Expr.Binary expr) {
+            long left = leftLong(interpreter, expr);
+            long right = rightLong(interpreter, expr, left);
+            try {
+                return Interpreter.multiplyIntegers(left, right);
+            } catch (UnexpectedValue notInteger) {
+                throw new UnexpectedValue(widen(expr, (double) left, (double) right));
+            }
+        }
+    }
+
+    static final class GreaterIntegers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left > (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                long left = leftLong(interpreter, expr);
+                return left > rightLong(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class GreaterEqualIntegers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left >= (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                long left = leftLong(interpreter, expr);
+                return left >= rightLong(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class LessIntegers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left < (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                long left = leftLong(interpreter, expr);
+                return left < rightLong(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class LessEqualIntegers extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Interpreter.isInteger(left) && Interpreter.isInteger(right)) {
+                return (double) left <= (double) right;
+            }
+            return widen(expr, left, right);
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Binary expr) {
+            try {
+                long left = leftLong(interpreter, expr);
+                return left <= rightLong(interpreter, expr, left);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    // Handles any operands, including reporting the errors for the wrong ones
+    static final class Generic extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            switch (expr.operator.type) {
+                case GREATER:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left > (double) right;
+                case GREATER_EQUAL:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left >= (double) right;
+                case LESS:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left < (double) right;
+                case LESS_EQUAL:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left <= (double) right;
+                case MINUS:
+                    Interpreter.checkNumberOperand(expr.operator, right);
+                    return (double) left - (double) right;
+                case SLASH:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left / (double) right;
+                case STAR:
+                    Interpreter.checkNumberOperands(expr.operator, left, right);
+                    return (double) left * (double) right;
+                case PLUS:
+                    if ((left instanceof Double) && (right instanceof Double)) {
+                        return (double) left + (double) right;
+                    } else if ((left instanceof LoxString) && (right instanceof LoxString)) {
+                        return LoxString.concat((LoxString) left, (LoxString) right);
+                    }
+                    throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                case BANG_EQUAL:
+                    return !Interpreter.isEqual(left, right);
+                case EQUAL_EQUAL:
+                    return Interpreter.isEqual(left, right);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox;
+
+// A captured variable. While its frame is live, the variable's slot holds the
+// Cell, and every closure that captured the variable holds the same Cell in
+// its upvalues, so they all see assignments made through any of them.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
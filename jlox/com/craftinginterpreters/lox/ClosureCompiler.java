@@ -0,0 +1,999 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles resolved statements and expressions once into a tree of Java
+// closures, which then run without going through accept() and the visitor.
+// Everything that only depends on the code, like which operator to apply,
+// where a variable lives or how many arguments a call passes, is decided
+// while compiling. The compiled code shares its runtime with the Interpreter,
+// i.e. its globals, functions, classes, upvalues and value stack.
+class ClosureCompiler implements Expr.Visitor<CompiledExpr>, Stmt.Visitor<CompiledStmt> {
+    private final Interpreter interpreter;
+    private final Globals globals;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+    }
+
+    void interpret(List<Stmt> statements) {
+        CompiledStmt program = compileBlock(statements);
+        interpreter.resetStack();
+
+        try {
+            program.execute(null);
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    private CompiledExpr compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private CompiledStmt compile(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // The statements stop at the first one that does not complete normally,
+    // like Interpreter.executeStatements.
+    private CompiledStmt compileBlock(List<Stmt> statements) {
+        CompiledStmt[] compiled = new CompiledStmt[statements.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(statements.get(i));
+        }
+
+        if (compiled.length == 1) return compiled[0];
+
+        return upvalues -> {
+            for (CompiledStmt statement : compiled) {
+                Completion completion = statement.execute(upvalues);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    // Compiles a function's body, which runs directly in the frame of the call
+    void compileFunction(Stmt.Function function) {
+        function.compiled = compileBlock(function.body);
+    }
+
+    // Compiles a loop that the Interpreter switches to in the middle of
+    // running it. It runs in the live frame of the function the loop is in.
+    void compileLoop(Stmt.While loop) {
+        loop.osr = compile(loop);
+    }
+
+    @Override
+    public CompiledExpr visitBinaryExpr(Expr.Binary expr) {
+        // Arithmetic is computed unboxed and only its result is boxed here
+        if (isNumber(expr)) {
+            CompiledNumber number = compileNumber(expr);
+            return upvalues -> number.evaluate(upvalues);
+        }
+
+        Token operator = expr.operator;
+        // Comparisons of whole numbers are computed with longs
+        boolean integers = isInteger(expr.left) && isInteger(expr.right);
+
+        switch (operator.type) {
+            case GREATER: {
+                CompiledNumber right = compileOperand(expr.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(expr.left, right, operator, "Operands must be numbers");
+                CompiledExpr numbers = upvalues -> left.evaluate(upvalues) > right.evaluate(upvalues);
+                if (!integers) return numbers;
+
+                CompiledInteger a = compileInteger(expr.left);
+                CompiledInteger b = compileInteger(expr.right);
+                return widening(upvalues -> a.evaluate(upvalues) > b.evaluate(upvalues), numbers);
+            }
+            case GREATER_EQUAL: {
+                CompiledNumber right = compileOperand(expr.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(expr.left, right, operator, "Operands must be numbers");
+                CompiledExpr numbers = upvalues -> left.evaluate(upvalues) >= right.evaluate(upvalues);
+                if (!integers) return numbers;
+
+                CompiledInteger a = compileInteger(expr.left);
+                CompiledInteger b = compileInteger(expr.right);
+                return widening(upvalues -> a.evaluate(upvalues) >= b.evaluate(upvalues), numbers);
+            }
+            case LESS: {
+                CompiledNumber right = compileOperand(expr.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(expr.left, right, operator, "Operands must be numbers");
+                CompiledExpr numbers = upvalues -> left.evaluate(upvalues) < right.evaluate(upvalues);
+                if (!integers) return numbers;
+
+                CompiledInteger a = compileInteger(expr.left);
+                CompiledInteger b = compileInteger(expr.right);
+                return widening(upvalues -> a.evaluate(upvalues) < b.evaluate(upvalues), numbers);
+            }
+            case LESS_EQUAL: {
+                CompiledNumber right = compileOperand(expr.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(expr.left, right, operator, "Operands must be numbers");
+                CompiledExpr numbers = upvalues -> left.evaluate(upvalues) <= right.evaluate(upvalues);
+                if (!integers) return numbers;
+
+                CompiledInteger a = compileInteger(expr.left);
+                CompiledInteger b = compileInteger(expr.right);
+                return widening(upvalues -> a.evaluate(upvalues) <= b.evaluate(upvalues), numbers);
+            }
+            default:
+                break;
+        }
+
+        CompiledExpr left = compile(expr.left);
+        CompiledExpr right = compile(expr.right);
+
+        switch (operator.type) {
+            case PLUS:
+                return upvalues -> {
+                    Object a = left.evaluate(upvalues);
+                    Object b = right.evaluate(upvalues);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a + (double) b;
+                    } else if (a instanceof LoxString && b instanceof LoxString) {
+                        return LoxString.concat((LoxString) a, (LoxString) b);
+                    }
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                };
+            case BANG_EQUAL:
+                return upvalues -> !Interpreter.isEqual(left.evaluate(upvalues), right.evaluate(upvalues));
+            case EQUAL_EQUAL:
+                return upvalues -> Interpreter.isEqual(left.evaluate(upvalues), right.evaluate(upvalues));
+            default:
+                return upvalues -> {
+                    left.evaluate(upvalues);
+                    right.evaluate(upvalues);
+                    return null;
+                };
+        }
+    }
+
+    // Whether the expression evaluates to a number whenever it doesn't fail.
+    // Subtraction, multiplication, division and negation only produce
+    // numbers, and so does an addition with a number as one of its operands,
+    // since it can't be a concatenation then.
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) return ((Expr.Literal) expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return isNumber(binary.left) || isNumber(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // Compiles an expression for which isNumber() holds
+    private CompiledNumber compileNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            double value = (double) ((Expr.Literal) expr).value;
+            return upvalues -> value;
+        }
+
+        if (expr instanceof Expr.Grouping) return compileNumber(((Expr.Grouping) expr).expression);
+
+        if (expr instanceof Expr.Unary) {
+            Expr operand = ((Expr.Unary) expr).right;
+            if (isNumber(operand)) {
+                CompiledNumber right = compileNumber(operand);
+                return upvalues -> -right.evaluate(upvalues);
+            }
+            CompiledExpr right = compile(operand);
+            return upvalues -> -(double) right.evaluate(upvalues);
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        Token operator = binary.operator;
+
+        switch (operator.type) {
+            case MINUS: {
+                // Only the right operand is checked, the left one is cast
+                CompiledNumber right = compileOperand(binary.right, operator, "Operand must be a number");
+                CompiledNumber left = compileLeftOperand(binary.left, right, operator, null);
+                return upvalues -> left.evaluate(upvalues) - right.evaluate(upvalues);
+            }
+            case STAR: {
+                CompiledNumber right = compileOperand(binary.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(binary.left, right, operator, "Operands must be numbers");
+                return upvalues -> left.evaluate(upvalues) * right.evaluate(upvalues);
+            }
+            case SLASH: {
+                CompiledNumber right = compileOperand(binary.right, operator, "Operands must be numbers");
+                CompiledNumber left = compileLeftOperand(binary.left, right, operator, "Operands must be numbers");
+                return upvalues -> left.evaluate(upvalues) / right.evaluate(upvalues);
+            }
+            default: {
+                String message = "Operands must be two numbers or two strings.";
+                CompiledNumber right = compileOperand(binary.right, operator, message);
+                CompiledNumber left = compileLeftOperand(binary.left, right, operator, message);
+                return upvalues -> left.evaluate(upvalues) + right.evaluate(upvalues);
+            }
+        }
+    }
+
+    // Compiles the right operand of an operator on numbers, which reports
+    // the error with the given message if the operand is not a number
+    private CompiledNumber compileOperand(Expr expr, Token operator, String message) {
+        if (isNumber(expr)) return compileNumber(expr);
+
+        if (isLocal(expr)) {
+            int slot = ((Expr.Variable) expr).slot;
+            return upvalues -> {
+                int index = interpreter.base + slot;
+                Object value = interpreter.stack[index];
+                if (value == Interpreter.NUMBER) return interpreter.numbers[index];
+                if (value == Interpreter.INTEGER) return interpreter.integers[index];
+                if (value instanceof Double) return (double) value;
+                throw new RuntimeError(operator, message);
+            };
+        }
+
+        CompiledExpr operand = compile(expr);
+        return upvalues -> {
+            Object value = operand.evaluate(upvalues);
+            if (value instanceof Double) return (double) value;
+            throw new RuntimeError(operator, message);
+        };
+    }
+
+    // Compiles the left operand of an operator on numbers. The operator
+    // reports its error only after evaluating the right operand as well, so
+    // a left operand that is not a number does that first. Without a message
+    // the operand is cast like the Interpreter casts the left operand of a
+    // subtraction.
+    private CompiledNumber compileLeftOperand(Expr expr, CompiledNumber right, Token operator, String message) {
+        if (isNumber(expr)) return compileNumber(expr);
+
+        if (isLocal(expr)) {
+            int slot = ((Expr.Variable) expr).slot;
+            return upvalues -> {
+                int index = interpreter.base + slot;
+                Object value = interpreter.stack[index];
+                if (value == Interpreter.NUMBER) return interpreter.numbers[index];
+                if (value == Interpreter.INTEGER) return interpreter.integers[index];
+                if (value instanceof Double) return (double) value;
+
+                right.evaluate(upvalues);
+                if (message == null) return (double) value;
+                throw new RuntimeError(operator, message);
+            };
+        }
+
+        CompiledExpr operand = compile(expr);
+        return upvalues -> {
+            Object value = operand.evaluate(upvalues);
+            if (value instanceof Double) return (double) value;
+
+            right.evaluate(upvalues);
+            if (message == null) return (double) value;
+            throw new RuntimeError(operator, message);
+        };
+    }
+
+    // Whether the expression can be computed with longs, which holds for
+    // arithmetic other than division on whole number literals and locals
+    // that are not captured. Such an expression has no side effects, so when
+    // it turns out not to be a whole number it is evaluated again as doubles.
+    private static boolean isInteger(Expr expr) {
+        if (expr instanceof Expr.Literal) return Interpreter.isInteger(((Expr.Literal) expr).value);
+        if (expr instanceof Expr.Grouping) return isInteger(((Expr.Grouping) expr).expression);
+        if (isLocal(expr)) return true;
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case PLUS:
+                case MINUS:
+                case STAR:
+                    return isInteger(binary.left) && isInteger(binary.right);
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // Compiles an expression for which isInteger() holds
+    private CompiledInteger compileInteger(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            long value = (long) (double) ((Expr.Literal) expr).value;
+            return upvalues -> value;
+        }
+
+        if (expr instanceof Expr.Grouping) return compileInteger(((Expr.Grouping) expr).expression);
+
+        if (expr instanceof Expr.Variable) {
+            int slot = ((Expr.Variable) expr).slot;
+            return upvalues -> {
+                int index = interpreter.base + slot;
+                if (interpreter.stack[index] == Interpreter.INTEGER) return interpreter.integers[index];
+                return Interpreter.toLong(interpreter.local(index));
+            };
+        }
+
+        Expr.Binary binary = (Expr.Binary) expr;
+        CompiledInteger left = compileInteger(binary.left);
+        CompiledInteger right = compileInteger(binary.right);
+
+        switch (binary.operator.type) {
+            case PLUS:
+                return upvalues -> {
+                    long sum = left.evaluate(upvalues) + right.evaluate(upvalues);
+                    if (Interpreter.inIntegerRange(sum)) return sum;
+                    throw new UnexpectedValue((double) sum);
+                };
+            case MINUS:
+                return upvalues -> {
+                    long difference = left.evaluate(upvalues) - right.evaluate(upvalues);
+                    if (Interpreter.inIntegerRange(difference)) return difference;
+                    throw new UnexpectedValue((double) difference);
+                };
+            default:
+                return upvalues -> Interpreter.multiplyIntegers(left.evaluate(upvalues), right.evaluate(upvalues));
+        }
+    }
+
+    // A site that computes with longs until it sees a value that is not a
+    // whole number, from then on it computes with doubles
+    private static final class IntegerSite {
+        boolean widened = false;
+    }
+
+    private static CompiledExpr widening(CompiledExpr integers, CompiledExpr numbers) {
+        IntegerSite site = new IntegerSite();
+        return upvalues -> {
+            if (!site.widened) {
+                try {
+                    return integers.evaluate(upvalues);
+                } catch (UnexpectedValue unexpected) {
+                    site.widened = true;
+                }
+            }
+            return numbers.evaluate(upvalues);
+        };
+    }
+
+    // Whether the expression reads a local that is not captured, which may
+    // hold an unboxed number, see Interpreter.numbers
+    private static boolean isLocal(Expr expr) {
+        return expr instanceof Expr.Variable && Interpreter.isLocal((Expr.Variable) expr);
+    }
+
+    // Stores the value of an expression in the slot of a local that is not
+    // captured, like Interpreter.store. Numbers are stored unboxed.
+    private interface Store {
+        void store(Cell[] upvalues);
+    }
+
+    private Store compileStore(int slot, Expr expr) {
+        if (isLocal(expr)) {
+            int from = ((Expr.Variable) expr).slot;
+            return upvalues -> {
+                int base = interpreter.base;
+                Object value = interpreter.stack[base + from];
+                interpreter.stack[base + slot] = value;
+                if (value == Interpreter.NUMBER) interpreter.numbers[base + slot] = interpreter.numbers[base + from];
+                if (value == Interpreter.INTEGER) interpreter.integers[base + slot] = interpreter.integers[base + from];
+            };
+        }
+
+        Store numbers = compileNumberStore(slot, expr);
+        if (!isInteger(expr)) return numbers;
+
+        CompiledInteger integer = compileInteger(expr);
+        IntegerSite site = new IntegerSite();
+        return upvalues -> {
+            if (!site.widened) {
+                try {
+                    long value = integer.evaluate(upvalues);
+                    int index = interpreter.base + slot;
+                    interpreter.stack[index] = Interpreter.INTEGER;
+                    interpreter.integers[index] = value;
+                    return;
+                } catch (UnexpectedValue unexpected) {
+                    site.widened = true;
+                }
+            }
+            numbers.store(upvalues);
+        };
+    }
+
+    private Store compileNumberStore(int slot, Expr expr) {
+        if (isNumber(expr)) {
+            CompiledNumber number = compileNumber(expr);
+            return upvalues -> {
+                double value = number.evaluate(upvalues);
+                int index = interpreter.base + slot;
+                interpreter.stack[index] = Interpreter.NUMBER;
+                interpreter.numbers[index] = value;
+            };
+        }
+
+        CompiledExpr value = compile(expr);
+        return upvalues -> {
+            Object result = value.evaluate(upvalues);
+            interpreter.stack[interpreter.base + slot] = result;
+        };
+    }
+
+    @Override
+    public CompiledExpr visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public CompiledExpr visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return upvalues -> value;
+    }
+
+    @Override
+    public CompiledExpr visitUnaryExpr(Expr.Unary expr) {
+        if (isNumber(expr)) {
+            CompiledNumber number = compileNumber(expr);
+            return upvalues -> number.evaluate(upvalues);
+        }
+
+        CompiledExpr right = compile(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG:
+                return upvalues -> !Interpreter.isTruthy(right.evaluate(upvalues));
+            default:
+                return upvalues -> {
+                    right.evaluate(upvalues);
+                    return null;
+                };
+        }
+    }
+
+    @Override
+    public CompiledExpr visitVariableExpr(Expr.Variable expr) {
+        int slot = expr.slot;
+
+        if (expr.isGlobal) return upvalues -> globals.get(expr);
+        if (expr.isUpvalue) return upvalues -> upvalues[slot].value;
+        if (expr.isCaptured) return upvalues -> ((Cell) interpreter.stack[interpreter.base + slot]).value;
+        return upvalues -> interpreter.local(interpreter.base + slot);
+    }
+
+    @Override
+    public CompiledExpr visitAssignExpr(Expr.Assign expr) {
+        CompiledExpr value = compile(expr.value);
+        int slot = expr.slot;
+
+        if (expr.isGlobal) {
+            return upvalues -> {
+                Object result = value.evaluate(upvalues);
+                globals.assign(expr, result);
+                return result;
+            };
+        }
+
+        if (expr.isUpvalue) {
+            return upvalues -> {
+                Object result = value.evaluate(upvalues);
+                upvalues[slot].value = result;
+                return result;
+            };
+        }
+
+        if (expr.isCaptured) {
+            return upvalues -> {
+                Object result = value.evaluate(upvalues);
+                ((Cell) interpreter.stack[interpreter.base + slot]).value = result;
+                return result;
+            };
+        }
+
+        return upvalues -> {
+            Object result = value.evaluate(upvalues);
+            interpreter.stack[interpreter.base + slot] = result;
+            return result;
+        };
+    }
+
+    @Override
+    public CompiledExpr visitLogicalExpr(Expr.Logical expr) {
+        CompiledExpr left = compile(expr.left);
+        CompiledExpr right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return upvalues -> {
+                Object value = left.evaluate(upvalues);
+                if (Interpreter.isTruthy(value)) return value;
+                return right.evaluate(upvalues);
+            };
+        }
+
+        return upvalues -> {
+            Object value = left.evaluate(upvalues);
+            if (!Interpreter.isTruthy(value)) return value;
+            return right.evaluate(upvalues);
+        };
+    }
+
+    // Stores the evaluated arguments of a call into the callee's frame on
+    // the stack, starting at the given slot. Each argument is evaluated
+    // before the stack is read, since a call can grow it.
+    private interface Arguments {
+        void store(Cell[] upvalues, int first);
+    }
+
+    // Picks the code that passes the arguments once, for the usual small
+    // argument counts it evaluates them without looping.
+    private Arguments compileArguments(CompiledExpr[] arguments) {
+        switch (arguments.length) {
+            case 0:
+                return (upvalues, first) -> {};
+            case 1: {
+                CompiledExpr a = arguments[0];
+                return (upvalues, first) -> {
+                    Object value = a.evaluate(upvalues);
+                    interpreter.stack[first] = value;
+                };
+            }
+            case 2: {
+                CompiledExpr a = arguments[0];
+                CompiledExpr b = arguments[1];
+                return (upvalues, first) -> {
+                    Object value = a.evaluate(upvalues);
+                    interpreter.stack[first] = value;
+                    value = b.evaluate(upvalues);
+                    interpreter.stack[first + 1] = value;
+                };
+            }
+            case 3: {
+                CompiledExpr a = arguments[0];
+                CompiledExpr b = arguments[1];
+                CompiledExpr c = arguments[2];
+                return (upvalues, first) -> {
+                    Object value = a.evaluate(upvalues);
+                    interpreter.stack[first] = value;
+                    value = b.evaluate(upvalues);
+                    interpreter.stack[first + 1] = value;
+                    value = c.evaluate(upvalues);
+                    interpreter.stack[first + 2] = value;
+                };
+            }
+            default:
+                return (upvalues, first) -> {
+                    for (int i = 0; i < arguments.length; i++) {
+                        Object value = arguments[i].evaluate(upvalues);
+                        interpreter.stack[first + i] = value;
+                    }
+                };
+        }
+    }
+
+    @Override
+    public CompiledExpr visitCallExpr(Expr.Call expr) {
+        Token paren = expr.paren;
+        CompiledExpr[] arguments = new CompiledExpr[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = compile(expr.arguments.get(i));
+        }
+        Call call = new Call(paren, arguments, compileArguments(arguments));
+
+        // Method calls are invoked directly on their receiver, like in the Interpreter
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            CompiledExpr object = compile(get.object);
+            Token name = get.name;
+            InlineCache cache = get.cache;
+
+            return upvalues -> {
+                Object receiver = object.evaluate(upvalues);
+
+                if (!(receiver instanceof LoxInstance)) {
+                    throw new RuntimeError(name, "Only instances have properties.");
+                }
+
+                LoxInstance instance = (LoxInstance) receiver;
+                Object property = instance.getUnbound(name, cache);
+
+                if (property instanceof LoxFunction && ((LoxFunction) property).isUnboundMethod()) {
+                    return call.function(upvalues, (LoxFunction) property, instance);
+                }
+
+                // A field holding some other callable value
+                return call.value(upvalues, property);
+            };
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            int slot = superExpr.slot;
+            Token method = superExpr.method;
+            CompiledExpr receiver = compile(superExpr.receiver);
+
+            return upvalues -> {
+                LoxClass superclass = (LoxClass) upvalues[slot].value;
+                LoxInstance object = (LoxInstance) receiver.evaluate(upvalues);
+
+                LoxFunction function = superclass.findMethod(method.symbol);
+
+                if (function == null) {
+                    throw new RuntimeError(method, String.format("Undefined property '%s'.", method.lexeme));
+                }
+
+                return call.function(upvalues, function, object);
+            };
+        }
+
+        CompiledExpr callee = compile(expr.callee);
+        return upvalues -> call.value(upvalues, callee.evaluate(upvalues));
+    }
+
+    // The parts of a call site that are known once it has been compiled
+    private class Call {
+        final Token paren;
+        final CompiledExpr[] arguments;
+        final Arguments store;
+
+        Call(Token paren, CompiledExpr[] arguments, Arguments store) {
+            this.paren = paren;
+            this.arguments = arguments;
+            this.store = store;
+        }
+
+        Object value(Cell[] upvalues, Object callee) {
+            if (callee instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) callee;
+                return function(upvalues, function, function.receiver);
+            }
+
+            if (callee instanceof LoxClass) {
+                LoxClass klass = (LoxClass) callee;
+                if (klass.initializer == null) {
+                    checkArity(0, evaluateAll(upvalues).length);
+                    return new LoxInstance(klass);
+                }
+                return function(upvalues, klass.initializer, new LoxInstance(klass));
+            }
+
+            Object[] values = evaluateAll(upvalues);
+
+            if (!(callee instanceof LoxCallable)) {
+                throw new RuntimeError(paren, "Can only call function and classes.");
+            }
+
+            LoxCallable function = (LoxCallable) callee;
+            checkArity(function.arity(), values.length);
+            return function.call(interpreter, values);
+        }
+
+        Object function(Cell[] upvalues, LoxFunction function, LoxInstance receiver) {
+            if (arguments.length != function.arity()) {
+                checkArity(function.arity(), evaluateAll(upvalues).length);
+            }
+
+            int frame = interpreter.pushFrame(function.declaration.frameSize);
+            store.store(upvalues, frame + function.firstParam());
+            return function.execute(interpreter, frame, receiver);
+        }
+
+        private Object[] evaluateAll(Cell[] upvalues) {
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = arguments[i].evaluate(upvalues);
+            }
+            return values;
+        }
+
+        private void checkArity(int arity, int count) {
+            if (count != arity) {
+                String errorMessage = String.format("Expected %d arguments but got %d instead.", arity, count);
+                throw new RuntimeError(paren, errorMessage);
+            }
+        }
+    }
+
+    @Override
+    public CompiledExpr visitGetExpr(Expr.Get expr) {
+        CompiledExpr object = compile(expr.object);
+        Token name = expr.name;
+        InlineCache cache = expr.cache;
+
+        return upvalues -> {
+            Object value = object.evaluate(upvalues);
+
+            if (value instanceof LoxInstance) {
+                return ((LoxInstance) value).get(name, cache);
+            }
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        };
+    }
+
+    @Override
+    public CompiledExpr visitSetExpr(Expr.Set expr) {
+        CompiledExpr object = compile(expr.object);
+        CompiledExpr value = compile(expr.value);
+        Token name = expr.name;
+        InlineCache cache = expr.cache;
+
+        return upvalues -> {
+            Object instance = object.evaluate(upvalues);
+
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.evaluate(upvalues);
+            ((LoxInstance) instance).set(name, result, cache);
+            return result;
+        };
+    }
+
+    @Override
+    public CompiledExpr visitThisExpr(Expr.This expr) {
+        int slot = expr.slot;
+
+        if (expr.isUpvalue) return upvalues -> upvalues[slot].value;
+        if (expr.isCaptured) return upvalues -> ((Cell) interpreter.stack[interpreter.base + slot]).value;
+        return upvalues -> interpreter.stack[interpreter.base + slot];
+    }
+
+    @Override
+    public CompiledExpr visitSuperExpr(Expr.Super expr) {
+        int slot = expr.slot;
+        Token method = expr.method;
+        CompiledExpr receiver = compile(expr.receiver);
+
+        return upvalues -> {
+            LoxClass superclass = (LoxClass) upvalues[slot].value;
+            LoxInstance object = (LoxInstance) receiver.evaluate(upvalues);
+
+            LoxFunction function = superclass.findMethod(method.symbol);
+
+            if (function == null) {
+                throw new RuntimeError(method, String.format("Undefined property '%s'.", method.lexeme));
+            }
+
+            return function.bind(object);
+        };
+    }
+
+    // Stores a value in a global or a slot of the current frame, see
+    // Interpreter.define and Interpreter.initialize
+    private interface Definition {
+        void define(Object value);
+    }
+
+    private Definition compileDefinition(Token name, int slot, boolean isCaptured) {
+        if (slot == Resolver.GLOBAL) {
+            Symbol symbol = name.symbol;
+            return value -> globals.define(symbol, value);
+        }
+        if (isCaptured) return value -> interpreter.stack[interpreter.base + slot] = new Cell(value);
+        return value -> interpreter.stack[interpreter.base + slot] = value;
+    }
+
+    private Definition compileInitialization(Token name, int slot, boolean isCaptured) {
+        if (slot == Resolver.GLOBAL) {
+            Symbol symbol = name.symbol;
+            return value -> globals.define(symbol, value);
+        }
+        if (isCaptured) return value -> ((Cell) interpreter.stack[interpreter.base + slot]).value = value;
+        return value -> interpreter.stack[interpreter.base + slot] = value;
+    }
+
+    @Override
+    public CompiledStmt visitExpressionStmt(Stmt.Expression stmt) {
+        // An assignment to a local whose value is not used can keep it unboxed
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            if (!assign.isGlobal && !assign.isUpvalue && !assign.isCaptured) {
+                Store store = compileStore(assign.slot, assign.value);
+                return upvalues -> {
+                    store.store(upvalues);
+                    return Completion.NORMAL;
+                };
+            }
+        }
+
+        CompiledExpr expression = compile(stmt.expression);
+        return upvalues -> {
+            expression.evaluate(upvalues);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitPrintStmt(Stmt.Print stmt) {
+        CompiledExpr expression = compile(stmt.expression);
+        return upvalues -> {
+            System.out.println(Interpreter.stringify(expression.evaluate(upvalues)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null && stmt.slot != Resolver.GLOBAL && !stmt.isCaptured) {
+            Store store = compileStore(stmt.slot, stmt.initializer);
+            return upvalues -> {
+                store.store(upvalues);
+                return Completion.NORMAL;
+            };
+        }
+
+        Definition definition = compileDefinition(stmt.name, stmt.slot, stmt.isCaptured);
+
+        if (stmt.initializer == null) {
+            return upvalues -> {
+                definition.define(null);
+                return Completion.NORMAL;
+            };
+        }
+
+        CompiledExpr initializer = compile(stmt.initializer);
+        return upvalues -> {
+            definition.define(initializer.evaluate(upvalues));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitBlockStmt(Stmt.Block stmt) {
+        CompiledStmt body = compileBlock(stmt.statements);
+        if (stmt.frameSize == 0) return body;
+
+        // A block outside of any function, its locals need a frame
+        int frameSize = stmt.frameSize;
+        return upvalues -> {
+            int frame = interpreter.pushFrame(frameSize);
+            int callerBase = interpreter.base;
+            interpreter.base = frame;
+            Completion completion = body.execute(upvalues);
+            interpreter.base = callerBase;
+            interpreter.top = frame;
+            return completion;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitIfStmt(Stmt.If stmt) {
+        CompiledExpr condition = compile(stmt.condition);
+        CompiledStmt thenBranch = compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            return upvalues -> {
+                if (Interpreter.isTruthy(condition.evaluate(upvalues))) {
+                    return thenBranch.execute(upvalues);
+                }
+                return Completion.NORMAL;
+            };
+        }
+
+        CompiledStmt elseBranch = compile(stmt.elseBranch);
+        return upvalues -> {
+            if (Interpreter.isTruthy(condition.evaluate(upvalues))) {
+                return thenBranch.execute(upvalues);
+            }
+            return elseBranch.execute(upvalues);
+        };
+    }
+
+    @Override
+    public CompiledStmt visitWhileStmt(Stmt.While stmt) {
+        CompiledExpr condition = compile(stmt.condition);
+        CompiledStmt body = compile(stmt.body);
+        Stmt.Function enclosing = stmt.enclosing;
+
+        if (TieredCompiler.enabled && enclosing != null) {
+            return upvalues -> {
+                while (Interpreter.isTruthy(condition.evaluate(upvalues))) {
+                    Completion completion = body.execute(upvalues);
+                    if (completion != Completion.NORMAL) return completion;
+                    TieredCompiler.countBackEdge(enclosing);
+                }
+                return Completion.NORMAL;
+            };
+        }
+
+        return upvalues -> {
+            while (Interpreter.isTruthy(condition.evaluate(upvalues))) {
+                Completion completion = body.execute(upvalues);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitFunctionStmt(Stmt.Function stmt) {
+        compileFunction(stmt);
+        Definition definition = compileDefinition(stmt.name, stmt.slot, stmt.isCaptured);
+        Definition initialization = compileInitialization(stmt.name, stmt.slot, stmt.isCaptured);
+
+        return upvalues -> {
+            definition.define(null);
+            initialization.define(new LoxFunction(stmt, LoxFunction.capture(stmt, interpreter, upvalues), false,
+                    false));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return upvalues -> {
+                interpreter.returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+
+        CompiledExpr value = compile(stmt.value);
+        return upvalues -> {
+            interpreter.returnValue = value.evaluate(upvalues);
+            return Completion.RETURN;
+        };
+    }
+
+    @Override
+    public CompiledStmt visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            compileFunction(method);
+        }
+
+        CompiledExpr superclassExpr = stmt.superclass == null ? null : compile(stmt.superclass);
+        Token superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+        Definition definition = compileDefinition(stmt.name, stmt.slot, stmt.isCaptured);
+        Definition initialization = compileInitialization(stmt.name, stmt.slot, stmt.isCaptured);
+        int frameSize = stmt.frameSize;
+        int superSlot = stmt.superSlot;
+
+        return upvalues -> {
+            Object superclass = null;
+            if (superclassExpr != null) {
+                superclass = superclassExpr.evaluate(upvalues);
+                if (!(superclass instanceof LoxClass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+            }
+            definition.define(null);
+
+            // The methods capture 'super' while they are created, at the top
+            // level the class pushes a frame for that
+            int frame = interpreter.pushFrame(frameSize);
+            int callerBase = interpreter.base;
+            if (frameSize > 0) interpreter.base = frame;
+            if (superclass != null) {
+                interpreter.stack[interpreter.base + superSlot] = new Cell(superclass);
+            }
+
+            Map<Symbol, LoxFunction> methods = new HashMap<>();
+
+            for (Stmt.Function method : stmt.methods) {
+                boolean isInitializer = method.name.symbol == Symbol.INIT;
+                LoxFunction function = new LoxFunction(method, LoxFunction.capture(method, interpreter, upvalues),
+                        true, isInitializer);
+                methods.put(method.name.symbol, function);
+            }
+
+            interpreter.base = callerBase;
+            interpreter.top = frame;
+
+            LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+            initialization.define(klass);
+            return Completion.NORMAL;
+        };
+    }
+}
@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+// An expression compiled by the ClosureCompiler, evaluated with the upvalues
+// of the function it is part of, or null outside of functions.
+interface CompiledExpr {
+    Object evaluate(Cell[] upvalues);
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox;
+
+// An expression compiled by the ClosureCompiler that computes a whole number
+// as a long. It throws UnexpectedValue when an operand or the result is not
+// a whole number within Interpreter.MAX_INTEGER.
+interface CompiledInteger {
+    long evaluate(Cell[] upvalues);
+}
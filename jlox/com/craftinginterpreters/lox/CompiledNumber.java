@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+// An expression compiled by the ClosureCompiler that always evaluates to a
+// number unless it fails, so it returns the number without boxing it.
+interface CompiledNumber {
+    double evaluate(Cell[] upvalues);
+}
@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+// A statement compiled by the ClosureCompiler, executed with the upvalues
+// of the function it is part of, or null outside of functions.
+interface CompiledStmt {
+    Completion execute(Cell[] upvalues);
+}
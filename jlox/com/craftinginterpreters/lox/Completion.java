@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// How the execution of a statement ended. Anything other than NORMAL stops
+// the enclosing blocks and loops and is passed on to whatever handles it,
+// e.g. a RETURN ends at the function call, which picks up the returned
+// value from the interpreter.
+enum Completion {
+    NORMAL,
+    RETURN
+}
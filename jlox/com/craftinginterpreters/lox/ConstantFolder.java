@@ -0,0 +1,259 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr.Assign;
+import com.craftinginterpreters.lox.Expr.Binary;
+import com.craftinginterpreters.lox.Expr.Call;
+import com.craftinginterpreters.lox.Expr.Get;
+import com.craftinginterpreters.lox.Expr.Grouping;
+import com.craftinginterpreters.lox.Expr.Literal;
+import com.craftinginterpreters.lox.Expr.Logical;
+import com.craftinginterpreters.lox.Expr.Set;
+import com.craftinginterpreters.lox.Expr.Super;
+import com.craftinginterpreters.lox.Expr.This;
+import com.craftinginterpreters.lox.Expr.Unary;
+import com.craftinginterpreters.lox.Expr.Variable;
+import com.craftinginterpreters.lox.Stmt.Block;
+import com.craftinginterpreters.lox.Stmt.Class;
+import com.craftinginterpreters.lox.Stmt.Expression;
+import com.craftinginterpreters.lox.Stmt.Function;
+import com.craftinginterpreters.lox.Stmt.If;
+import com.craftinginterpreters.lox.Stmt.Print;
+import com.craftinginterpreters.lox.Stmt.Return;
+import com.craftinginterpreters.lox.Stmt.Var;
+import com.craftinginterpreters.lox.Stmt.While;
+
+// Runs after the Resolver and replaces every expression whose value is known
+// before the program runs with a Literal of that value, so that no engine
+// evaluates it again each time it executes. Operators fold when their
+// operands are literals and would not fail at runtime, 'and' and 'or' fold
+// when their left operand is a literal, and reading a local variable folds
+// when the variable is initialized to a literal and never assigned again.
+// Only locals are propagated, a global may be assigned by code that hasn't
+// been parsed yet or read before its declaration has run.
+class ConstantFolder implements Expr.Visitor<Expr>, Stmt.Visitor<Void> {
+    // Number of expressions replaced so far
+    int folded = 0;
+
+    @Override
+    public Void visitExpressionStmt(Expression stmt) {
+        stmt.expression = fold(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(If stmt) {
+        stmt.condition = fold(stmt.condition);
+        fold(stmt.thenBranch);
+
+        if (stmt.elseBranch != null)
+            fold(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Print stmt) {
+        stmt.expression = fold(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Var stmt) {
+        if (stmt.initializer != null) {
+            stmt.initializer = fold(stmt.initializer);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Block stmt) {
+        fold(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(While stmt) {
+        stmt.condition = fold(stmt.condition);
+        fold(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Function stmt) {
+        fold(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            fold(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Return stmt) {
+        if (stmt.value != null) {
+            stmt.value = fold(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Assign expr) {
+        expr.value = fold(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Binary expr) {
+        expr.left = fold(expr.left);
+        expr.right = fold(expr.right);
+        if (!(expr.left instanceof Literal && expr.right instanceof Literal)) return expr;
+
+        Object left = ((Literal) expr.left).value;
+        Object right = ((Literal) expr.right).value;
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+                return constant(!Interpreter.isEqual(left, right));
+            case EQUAL_EQUAL:
+                return constant(Interpreter.isEqual(left, right));
+            case PLUS:
+                // The concatenation is interned like the literal it becomes
+                if (left instanceof LoxString && right instanceof LoxString) {
+                    return constant(LoxString.intern(left.toString() + right.toString()));
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Leave operands of the wrong type to fail at runtime
+        if (!(left instanceof Double && right instanceof Double)) return expr;
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (expr.operator.type) {
+            case PLUS: return constant(a + b);
+            case MINUS: return constant(a - b);
+            case STAR: return constant(a * b);
+            case SLASH: return constant(a / b);
+            case GREATER: return constant(a > b);
+            case GREATER_EQUAL: return constant(a >= b);
+            case LESS: return constant(a < b);
+            case LESS_EQUAL: return constant(a <= b);
+            default: return expr;
+        }
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Grouping expr) {
+        expr.expression = fold(expr.expression);
+        if (expr.expression instanceof Literal) {
+            folded++;
+            return expr.expression;
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Unary expr) {
+        expr.right = fold(expr.right);
+        if (!(expr.right instanceof Literal)) return expr;
+
+        Object right = ((Literal) expr.right).value;
+        switch (expr.operator.type) {
+            case BANG:
+                return constant(!Interpreter.isTruthy(right));
+            case MINUS:
+                if (right instanceof Double) return constant(-(double) right);
+                return expr;
+            default:
+                return expr;
+        }
+    }
+
+    @Override
+    public Expr visitVariableExpr(Variable expr) {
+        // The declaration has been folded already, it comes first
+        Var declaration = expr.declaration;
+        if (declaration != null && !declaration.isReassigned && declaration.initializer instanceof Literal) {
+            return constant(((Literal) declaration.initializer).value);
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Logical expr) {
+        expr.left = fold(expr.left);
+        expr.right = fold(expr.right);
+        if (!(expr.left instanceof Literal)) return expr;
+
+        // The operator evaluates to one of its operands, which one only
+        // depends on the left one
+        boolean truthy = Interpreter.isTruthy(((Literal) expr.left).value);
+        folded++;
+        if (expr.operator.type == TokenType.OR) {
+            return truthy ? expr.left : expr.right;
+        }
+        return truthy ? expr.right : expr.left;
+    }
+
+    @Override
+    public Expr visitCallExpr(Call expr) {
+        expr.callee = fold(expr.callee);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            expr.arguments.set(i, fold(expr.arguments.get(i)));
+        }
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Get expr) {
+        expr.object = fold(expr.object);
+        return expr;
+    }
+
+    @Override
+    public Expr visitSetExpr(Set expr) {
+        expr.object = fold(expr.object);
+        expr.value = fold(expr.value);
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Super expr) {
+        return expr;
+    }
+
+    void fold(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            fold(statement);
+        }
+    }
+
+    private void fold(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private Expr fold(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private Expr constant(Object value) {
+        folded++;
+        return new Literal(value);
+    }
+}
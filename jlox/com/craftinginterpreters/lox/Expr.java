@@ -2,8 +2,8 @@ package com.craftinginterpreters.lox;
 
 import java.util.List;
 
-abstract class Expr {
-  interface Visitor<R> {
+public abstract class Expr {
+  public interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitGroupingExpr(Grouping expr);
@@ -17,20 +17,25 @@ abstract class Expr {
     R visitThisExpr(This expr);
     R visitSuperExpr(Super expr);
   }
-  static class Assign extends Expr {
+  public static class Assign extends Expr {
     Assign(Token name, Expr value){
       this.name = name;
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
     }
-    final Token name;
-    final Expr value;
+    public final Token name;
+    public Expr value;
+    public int slot;
+    public boolean isGlobal;
+    public boolean isUpvalue;
+    public boolean isCaptured;
+    public Cell global;
   }
-  static class Binary extends Expr {
+  public static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right){
       this.left = left;
       this.operator = operator;
@@ -38,60 +43,68 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
     }
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public Expr left;
+    public final Token operator;
+    public Expr right;
+    public BinaryNode node;
   }
-  static class Grouping extends Expr {
+  public static class Grouping extends Expr {
     Grouping(Expr expression){
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGroupingExpr(this);
     }
-    final Expr expression;
+    public Expr expression;
   }
-  static class Literal extends Expr {
+  public static class Literal extends Expr {
     Literal(Object value){
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLiteralExpr(this);
     }
-    final Object value;
+    public final Object value;
   }
-  static class Unary extends Expr {
+  public static class Unary extends Expr {
     Unary(Token operator, Expr right){
       this.operator = operator;
       this.right = right;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitUnaryExpr(this);
     }
-    final Token operator;
-    final Expr right;
+    public final Token operator;
+    public Expr right;
+    public UnaryNode node;
   }
-  static class Variable extends Expr {
+  public static class Variable extends Expr {
     Variable(Token name){
       this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
     }
-    final Token name;
+    public final Token name;
+    public int slot;
+    public boolean isGlobal;
+    public boolean isUpvalue;
+    public boolean isCaptured;
+    public Cell global;
+    public Stmt.Var declaration;
   }
-  static class Logical extends Expr {
+  public static class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right){
       this.left = left;
       this.operator = operator;
@@ -99,14 +112,15 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public Expr left;
+    public final Token operator;
+    public Expr right;
+    public LogicalNode node;
   }
-  static class Call extends Expr {
+  public static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments){
       this.callee = callee;
       this.paren = paren;
@@ -114,27 +128,28 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
-    final Expr callee;
-    final Token paren;
-    final List<Expr> arguments;
+    public Expr callee;
+    public final Token paren;
+    public final List<Expr> arguments;
   }
-  static class Get extends Expr {
+  public static class Get extends Expr {
     Get(Expr object, Token name){
       this.object = object;
       this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
     }
-    final Expr object;
-    final Token name;
+    public Expr object;
+    public final Token name;
+    public InlineCache cache;
   }
-  static class Set extends Expr {
+  public static class Set extends Expr {
     Set(Expr object, Token name, Expr value){
       this.object = object;
       this.name = name;
@@ -142,37 +157,43 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
     }
-    final Expr object;
-    final Token name;
-    final Expr value;
+    public Expr object;
+    public final Token name;
+    public Expr value;
+    public InlineCache cache;
   }
-  static class This extends Expr {
+  public static class This extends Expr {
     This(Token keyword){
       this.keyword = keyword;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
     }
-    final Token keyword;
+    public final Token keyword;
+    public int slot;
+    public boolean isUpvalue;
+    public boolean isCaptured;
   }
-  static class Super extends Expr {
+  public static class Super extends Expr {
     Super(Token keyword, Token method){
       this.keyword = keyword;
       this.method = method;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitSuperExpr(this);
     }
-    final Token keyword;
-    final Token method;
+    public final Token keyword;
+    public final Token method;
+    public int slot;
+    public Expr.This receiver;
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Global variables are late bound, so a function can refer to a global that
+// is only defined after it. The Cell of a global lives in a growable table
+// at the id of its name's Symbol, which is created the first time the global
+// is defined. A variable or assignment caches the Cell of its global once it
+// is defined, since after that the global can be redefined, e.g. at the
+// REPL, but never undefined.
+class Globals {
+    private Cell[] cells = new Cell[64];
+
+    void define(Symbol name, Object value) {
+        cell(name).value = value;
+    }
+
+    Object get(Expr.Variable expr) {
+        Cell global = expr.global;
+        if (global == null) global = expr.global = lookup(expr.name);
+        return global.value;
+    }
+
+    void assign(Expr.Assign expr, Object value) {
+        Cell global = expr.global;
+        if (global == null) global = expr.global = lookup(expr.name);
+        global.value = value;
+    }
+
+    private Cell lookup(Token name) {
+        int id = name.symbol.id;
+        Cell cell = id < cells.length ? cells[id] : null;
+        if (cell == null) {
+            throw new RuntimeError(name, undefinedVarErrString(name.lexeme));
+        }
+        return cell;
+    }
+
+    private Cell cell(Symbol name) {
+        if (name.id >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, name.id + 1));
+        }
+
+        Cell cell = cells[name.id];
+        if (cell == null) cell = cells[name.id] = new Cell(null);
+        return cell;
+    }
+
+    private String undefinedVarErrString(String name) {
+        return String.format("Undefined variable '%s'.", name);
+    }
+}
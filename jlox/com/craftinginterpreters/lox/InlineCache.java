@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Remembers what a property access or method call site resolved to for the
+// last few shapes it has seen, so that executing it again with one
+// of them skips the lookup. A site that sees more than maxEntries different
+// keys is megamorphic, it stops caching and always takes the slow path.
+class InlineCache {
+    // Maximum number of entries before a site is considered megamorphic
+    static int maxEntries = 4;
+    // Whether or not sites are recorded so that statistics can be printed
+    static boolean trackSites = false;
+    private static final List<InlineCache> sites = new ArrayList<>();
+
+    // Describes the site in statistics, e.g. "get" and the property name
+    private final String kind;
+    private final Token name;
+
+    // The shape that each entry was resolved for
+    private Object[] keys = new Object[1];
+    // Field slot for entries that resolved to a field
+    int[] slots = new int[1];
+    // Method or shape transition for entries that resolved to one
+    Object[] targets = new Object[1];
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    long hits = 0;
+    long misses = 0;
+
+    InlineCache(String kind, Token name) {
+        this.kind = kind;
+        this.name = name;
+
+        if (trackSites) register(this);
+    }
+
+    // Sites are also created by the background compiler of TieredCompiler
+    private static synchronized void register(InlineCache site) {
+        sites.add(site);
+    }
+
+    // Returns the index of the entry for the key, or -1 on a miss
+    int lookup(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                hits++;
+                return i;
+            }
+        }
+
+        misses++;
+        return -1;
+    }
+
+    void add(Object key, int slot, Object target) {
+        if (megamorphic) return;
+
+        if (size == maxEntries) {
+            // Too many different keys, caching is not worth it for this site
+            megamorphic = true;
+            keys = null;
+            slots = null;
+            targets = null;
+            size = 0;
+            return;
+        }
+
+        if (size == keys.length) {
+            int capacity = Math.min(keys.length * 2, maxEntries);
+            keys = Arrays.copyOf(keys, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+        }
+
+        keys[size] = key;
+        slots[size] = slot;
+        targets[size] = target;
+        size++;
+    }
+
+    private String state() {
+        if (megamorphic) return "megamorphic";
+        if (size == 0) return "uninitialized";
+        if (size == 1) return "monomorphic";
+        return "polymorphic";
+    }
+
+    static synchronized void printStats() {
+        if (!trackSites) return;
+
+        sites.sort(Comparator.comparingInt(site -> site.name.line));
+
+        System.err.println("Inline cache statistics:");
+        for (InlineCache site : sites) {
+            System.err.println(String.format("[line %d] %s '%s' %s: %d hits, %d misses", site.name.line, site.kind,
+                    site.name.lexeme, site.state(), site.hits, site.misses));
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,16 +12,45 @@ import com.craftinginterpreters.lox.Expr.This;
 import com.craftinginterpreters.lox.Expr.Variable;
 import com.craftinginterpreters.lox.Stmt.Class;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    final Globals globals = new Globals();
+    // Value of the last executed return statement, read by the function
+    // call that the RETURN completion propagates up to.
+    Object returnValue = null;
+    // Upvalues of the function being executed, null outside of functions.
+    Cell[] upvalues = null;
+
+    // Locals that are not captured live in the frame of their function on
+    // this stack, which is reused by every call. The interpreter runs on a
+    // single thread, so the stack belongs to the thread as well.
+    Object[] stack = new Object[1024];
+    // Numbers in locals that are not captured are kept unboxed in the slot
+    // of this array instead, while their slot of stack holds the NUMBER tag.
+    // Loop counters and other locals that arithmetic assigns over and over
+    // thereby don't allocate a Double each time.
+    double[] numbers = new double[1024];
+    // Whole numbers are kept in the slot of this array in the same way, with
+    // the INTEGER tag, as long as the arithmetic that computes them stays
+    // whole and within MAX_INTEGER. Counting loops and index computations
+    // thereby do their steps in long arithmetic, see BinaryNode.
+    long[] integers = new long[1024];
+    // Start of the current frame, the Resolver numbers slots from there
+    int base = 0;
+    // First slot that is not part of any frame
+    int top = 0;
+
+    static final Object NUMBER = new Object();
+    static final Object INTEGER = new Object();
+
+    // Whole numbers up to this magnitude are held exactly by a double, so a
+    // long in that range is the same Lox number as its double
+    static final long MAX_INTEGER = 1L << 53;
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
+        globals.define(Symbol.intern("clock"), new LoxCallable() {
 
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -37,47 +66,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
+    // Binary, Unary and Logical expressions delegate to the node specialized
+    // for the operand types they saw first, see BinaryNode.
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.node != null) return expr.node.evaluate(this, expr);
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return (double) left - (double) right;
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
-            case PLUS:
-                if ((left instanceof Double) && (right instanceof Double)) {
-                    return (double) left + (double) right;
-                } else if ((left instanceof String) && (right instanceof String)) {
-                    return (String) left + (String) right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
-        }
-
-        return null;
+        boolean integers = isLong(expr.left) || isLong(expr.right);
+        expr.node = BinaryNode.specialize(expr, left, right, integers);
+        return expr.node.execute(expr, left, right);
     }
 
     @Override
@@ -92,23 +91,184 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.node != null) return expr.node.evaluate(this, expr);
+
         Object right = evaluate(expr.right);
+        expr.node = UnaryNode.specialize(expr, right);
+        return expr.node.execute(expr, right);
+    }
+
+    Object evaluate(Expr expr) {
+        return expr.accept(this);
+    }
 
-        switch (expr.operator.type) {
-            case MINUS:
-                return -(double) right;
-            case BANG:
-                return !isTruthy(right);
+    // Evaluates an operand of a node specialized for numbers. Arithmetic and
+    // negation that have only seen numbers compute a primitive double, so
+    // the intermediate results of nested arithmetic are never boxed. Throws
+    // UnexpectedValue if the operand is not a number after all.
+    double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.node instanceof BinaryNode.Arithmetic) {
+                return ((BinaryNode.Arithmetic) binary.node).executeDouble(this, binary);
+            }
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.node instanceof UnaryNode.NegateNumber) {
+                return ((UnaryNode.NegateNumber) unary.node).executeDouble(this, unary);
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Variable && isLocal((Expr.Variable) expr)) {
+            int index = base + ((Expr.Variable) expr).slot;
+            Object value = stack[index];
+            if (value == NUMBER) return numbers[index];
+            if (value == INTEGER) return integers[index];
+            if (value instanceof Double) return (double) value;
+            throw new UnexpectedValue(value);
         }
 
-        return null;
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double) value;
+        throw new UnexpectedValue(value);
     }
 
-    private Object evaluate(Expr expr) {
-        return expr.accept(this);
+    // Evaluates an operand of a node specialized for whole numbers, like
+    // evaluateDouble. Throws UnexpectedValue if the operand is not a whole
+    // number within MAX_INTEGER after all.
+    long evaluateLong(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            if (binary.node instanceof BinaryNode.IntegerArithmetic) {
+                return ((BinaryNode.IntegerArithmetic) binary.node).executeLong(this, binary);
+            }
+        } else if (expr instanceof Expr.Variable && isLocal((Expr.Variable) expr)) {
+            int index = base + ((Expr.Variable) expr).slot;
+            if (stack[index] == INTEGER) return integers[index];
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateLong(((Expr.Grouping) expr).expression);
+        }
+
+        return toLong(evaluate(expr));
+    }
+
+    // Whether the operand was computed as a long, by reading a local that
+    // holds one or by arithmetic specialized for whole numbers. Whole numbers
+    // that arrive boxed, e.g. as arguments or return values, would have to be
+    // checked and converted every time, so only operators with an operand
+    // like this are specialized for whole numbers.
+    private boolean isLong(Expr expr) {
+        if (expr instanceof Expr.Grouping) return isLong(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).node instanceof BinaryNode.IntegerArithmetic;
+        if (expr instanceof Expr.Variable && isLocal((Expr.Variable) expr)) {
+            return stack[base + ((Expr.Variable) expr).slot] == INTEGER;
+        }
+        return false;
+    }
+
+    static long toLong(Object value) {
+        if (value instanceof Double) {
+            double number = (double) value;
+            long whole = (long) number;
+            if (whole == number && inIntegerRange(whole) && (whole != 0 || Double.doubleToRawLongBits(number) == 0)) {
+                return whole;
+            }
+        }
+        throw new UnexpectedValue(value);
+    }
+
+    // Whether the value is a number that can be computed with as a long. -0
+    // is whole but can't, a long has no sign for zero.
+    static boolean isInteger(Object value) {
+        if (!(value instanceof Double)) return false;
+        double number = (double) value;
+        long whole = (long) number;
+        return whole == number && inIntegerRange(whole) && (whole != 0 || Double.doubleToRawLongBits(number) == 0);
+    }
+
+    static boolean inIntegerRange(long value) {
+        return value >= -MAX_INTEGER && value <= MAX_INTEGER;
+    }
+
+    // Multiplies whole numbers, or throws UnexpectedValue with the product as
+    // a double if it is not a whole number in range. The product of the
+    // doubles tells whether the one of the longs may overflow, and zero times
+    // a negative number is -0.
+    static long multiplyIntegers(long left, long right) {
+        double product = (double) left * right;
+        if (Math.abs(product) <= MAX_INTEGER && !(product == 0 && (left < 0 || right < 0))) {
+            long exact = left * right;
+            if (inIntegerRange(exact)) return exact;
+        }
+        throw new UnexpectedValue(product);
+    }
+
+    // Whether the variable is a local in a slot of the current frame that
+    // holds its value rather than a Cell
+    static boolean isLocal(Expr.Variable expr) {
+        return !expr.isGlobal && !expr.isUpvalue && !expr.isCaptured;
+    }
+
+    // Reads the slot of a local that is not captured, boxing its number
+    Object local(int index) {
+        Object value = stack[index];
+        if (value == NUMBER) return numbers[index];
+        if (value == INTEGER) return (double) integers[index];
+        return value;
+    }
+
+    // Stores the value of the expression in the slot of a local that is not
+    // captured. A number computed by arithmetic that has only seen numbers,
+    // a whole number literal, or a number copied from another such local is
+    // stored unboxed.
+    private void store(int slot, Expr expr) {
+        int index = base + slot;
+        if (expr instanceof Expr.Variable && isLocal((Expr.Variable) expr)) {
+            int from = base + ((Expr.Variable) expr).slot;
+            Object value = stack[from];
+            stack[index] = value;
+            if (value == NUMBER) numbers[index] = numbers[from];
+            if (value == INTEGER) integers[index] = integers[from];
+            return;
+        }
+
+        if (expr instanceof Expr.Literal && isInteger(((Expr.Literal) expr).value)) {
+            stack[index] = INTEGER;
+            integers[index] = (long) (double) ((Expr.Literal) expr).value;
+            return;
+        }
+
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).node instanceof BinaryNode.IntegerArithmetic) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            try {
+                long value = ((BinaryNode.IntegerArithmetic) binary.node).executeLong(this, binary);
+                stack[index] = INTEGER;
+                integers[index] = value;
+            } catch (UnexpectedValue unexpected) {
+                stack[index] = unexpected.value;
+            }
+            return;
+        }
+
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).node instanceof BinaryNode.Arithmetic) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            // Evaluating the expression may call functions that grow the
+            // stack, so the arrays are only read once it is done
+            try {
+                double value = ((BinaryNode.Arithmetic) binary.node).executeDouble(this, binary);
+                stack[index] = NUMBER;
+                numbers[index] = value;
+            } catch (UnexpectedValue unexpected) {
+                stack[index] = unexpected.value;
+            }
+            return;
+        }
+
+        Object value = evaluate(expr);
+        stack[index] = value;
     }
 
-    private boolean isTruthy(Object obj) {
+    static boolean isTruthy(Object obj) {
         if (obj == null)
             return false;
         if (obj instanceof Boolean)
@@ -116,7 +276,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private boolean isEqual(Object obj1, Object obj2) {
+    static boolean isEqual(Object obj1, Object obj2) {
         if (obj1 == null && obj2 == null)
             return true;
         if (obj1 == null)
@@ -126,19 +286,21 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     // check if a particular Token is a number
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double)
             return;
         throw new RuntimeError(operator, "Operand must be a number");
     }
 
-    private void checkNumberOperands(Token operator, Object operand1, Object operand2) {
+    static void checkNumberOperands(Token operator, Object operand1, Object operand2) {
         if (operand1 instanceof Double && operand2 instanceof Double)
             return;
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
     void interpret(List<Stmt> statements) {
+        resetStack();
+
         try {
             for (Stmt statement : statements) {
                 execute(statement);
@@ -148,11 +310,31 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private void execute(Stmt statement) {
-        statement.accept(this);
+    // Forgets the frames of a program that stopped with an error
+    void resetStack() {
+        base = 0;
+        top = 0;
+        upvalues = null;
     }
 
-    private String stringify(Object object) {
+    // Reserves a frame of the given size on top of the stack and returns
+    // where it starts. The frame stays until top is set back to that.
+    int pushFrame(int size) {
+        int frame = top;
+        top += size;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+            numbers = Arrays.copyOf(numbers, stack.length);
+            integers = Arrays.copyOf(integers, stack.length);
+        }
+        return frame;
+    }
+
+    private Completion execute(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
 
@@ -169,58 +351,114 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        // An assignment to a local whose value is not used can keep it unboxed
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            if (!assign.isGlobal && !assign.isUpvalue && !assign.isCaptured) {
+                store(assign.slot, assign.value);
+                return Completion.NORMAL;
+            }
+        }
+
         // We just evaluate the expression and return nothing.
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null && stmt.slot != Resolver.GLOBAL && !stmt.isCaptured) {
+            store(stmt.slot, stmt.initializer);
+            return Completion.NORMAL;
+        }
+
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
         // Either define it with an initialized value, or initialize as nil.
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, stmt.isCaptured, value);
+
+        return Completion.NORMAL;
+    }
+
+    // Each execution of a declaration creates a new variable, so closures
+    // created in different iterations of a loop capture different Cells
+    private void define(Token name, int slot, boolean isCaptured, Object value) {
+        if (slot == Resolver.GLOBAL) {
+            globals.define(name.symbol, value);
+        } else if (isCaptured) {
+            stack[base + slot] = new Cell(value);
+        } else {
+            stack[base + slot] = value;
+        }
+    }
 
-        return null;
+    // Stores the value of a variable that was defined before, for functions
+    // and classes that can refer to themselves
+    private void initialize(Token name, int slot, boolean isCaptured, Object value) {
+        if (slot == Resolver.GLOBAL) {
+            globals.define(name.symbol, value);
+        } else if (isCaptured) {
+            ((Cell) stack[base + slot]).value = value;
+        } else {
+            stack[base + slot] = value;
+        }
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.isGlobal) {
+            return globals.get(expr);
+        }
+        if (expr.isUpvalue) {
+            return upvalues[expr.slot].value;
+        }
+        if (expr.isCaptured) {
+            return ((Cell) stack[base + expr.slot]).value;
+        }
+
+        return local(base + expr.slot);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.isGlobal) {
+            globals.assign(expr, value);
+        } else if (expr.isUpvalue) {
+            upvalues[expr.slot].value = value;
+        } else if (expr.isCaptured) {
+            ((Cell) stack[base + expr.slot]).value = value;
         } else {
-            globals.assign(expr.name, value);
+            stack[base + expr.slot] = value;
         }
 
-        environment.assign(expr.name, value);
-
         return value;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.frameSize == 0) return executeStatements(stmt.statements);
+
+        // A block outside of any function, its locals need a frame
+        int frame = pushFrame(stmt.frameSize);
+        int callerBase = base;
+        base = frame;
+        Completion completion = executeStatements(stmt.statements);
+        base = callerBase;
+        top = frame;
+        return completion;
     }
 
     @Override
@@ -228,106 +466,227 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Object object = evaluate(expr.object);
 
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr.name, expr.cache);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
-
-        try {
-            this.environment = environment;
-
-            for (Stmt statement : statements) {
-                execute(statement);
-            }
-        } finally {
-            this.environment = previous;
+    // Stops at the first statement that does not complete normally and
+    // hands its completion on to the enclosing statement. Blocks run on
+    // every loop iteration, so this indexes the list rather than allocating
+    // an iterator for it.
+    Completion executeStatements(List<Stmt> statements) {
+        for (int i = 0; i < statements.size(); i++) {
+            Completion completion = execute(statements.get(i));
+            if (completion != Completion.NORMAL) return completion;
         }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
-        if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left))
-                return left;
-        } else {
-            if (!isTruthy(left))
-                return left;
-        }
-
-        return evaluate(expr.right);
+        if (expr.node == null) expr.node = LogicalNode.specialize(expr, left);
+        return expr.node.execute(this, expr, left);
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        if (stmt.osr != null) return stmt.osr.execute(upvalues);
+
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if (completion != Completion.NORMAL) return completion;
+
+            if (TieredCompiler.enabled) {
+                if (stmt.enclosing != null) TieredCompiler.countBackEdge(stmt.enclosing);
+
+                // Once the loop is compiled, the rest of its iterations run
+                // there, starting at the condition in the live frame
+                if (stmt.osr != null) return stmt.osr.execute(upvalues);
+                TieredCompiler.countLoopBackEdge(stmt);
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        // Method calls are invoked directly on their receiver, without
+        // creating a bound method that is thrown away right after the call
+        if (expr.callee instanceof Expr.Get) {
+            return invokeMethod(expr, (Expr.Get) expr.callee);
+        }
+        if (expr.callee instanceof Expr.Super) {
+            return invokeSuperMethod(expr, (Expr.Super) expr.callee);
+        }
+
         Object callee = evaluate(expr.callee);
+        return callValue(expr, callee);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    private Object callValue(Expr.Call expr, Object callee) {
+        if (callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction) callee;
+            return callFunction(expr, function, function.receiver);
         }
 
+        if (callee instanceof LoxClass) {
+            LoxClass klass = (LoxClass) callee;
+            if (klass.initializer == null) {
+                checkArity(expr, 0, evaluateArguments(expr).length);
+                return new LoxInstance(klass);
+            }
+            return callFunction(expr, klass.initializer, new LoxInstance(klass));
+        }
+
+        Object[] arguments = evaluateArguments(expr);
+
         // Check if we can cast this to a callable
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call function and classes.");
         }
 
         LoxCallable function = (LoxCallable) callee;
+        checkArity(expr, function.arity(), arguments.length);
+        return function.call(this, arguments);
+    }
+
+    private Object invokeMethod(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object);
+
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance) object;
+        Object property = instance.getUnbound(get.name, get.cache);
+
+        if (property instanceof LoxFunction && ((LoxFunction) property).isUnboundMethod()) {
+            return callFunction(expr, (LoxFunction) property, instance);
+        }
+
+        // A field holding some other callable value
+        return callValue(expr, property);
+    }
+
+    private Object invokeSuperMethod(Expr.Call expr, Expr.Super superExpr) {
+        LoxClass superclass = (LoxClass) upvalues[superExpr.slot].value;
+        LoxInstance object = (LoxInstance) evaluate(superExpr.receiver);
+
+        LoxFunction method = superclass.findMethod(superExpr.method.symbol);
 
-        // Check if the arguments passed in make sense
+        if (method == null) {
+            throw new RuntimeError(superExpr.method,
+                    String.format("Undefined property '%s'.", superExpr.method.lexeme));
+        }
+
+        return callFunction(expr, method, object);
+    }
+
+    // Calls a Lox function by evaluating the arguments straight into the
+    // slots of its new frame on the stack. Calls made while evaluating them
+    // push their frames above it.
+    private Object callFunction(Expr.Call expr, LoxFunction function, LoxInstance receiver) {
+        List<Expr> arguments = expr.arguments;
         if (arguments.size() != function.arity()) {
-            String errorMessage = String.format("Expected %d arguments but got %d instead.", function.arity(),
-                    arguments.size());
-            throw new RuntimeError(expr.paren, errorMessage);
+            checkArity(expr, function.arity(), evaluateArguments(expr).length);
         }
 
-        return function.call(this, arguments);
+        int frame = pushFrame(function.declaration.frameSize);
+        int first = frame + function.firstParam();
+
+        // Most calls pass few arguments, those skip the loop. An argument is
+        // evaluated before the stack is read, since a call can grow it.
+        switch (arguments.size()) {
+            case 0:
+                break;
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                stack[first] = a;
+                break;
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                stack[first] = a;
+                Object b = evaluate(arguments.get(1));
+                stack[first + 1] = b;
+                break;
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                stack[first] = a;
+                Object b = evaluate(arguments.get(1));
+                stack[first + 1] = b;
+                Object c = evaluate(arguments.get(2));
+                stack[first + 2] = c;
+                break;
+            }
+            default:
+                for (int i = 0; i < arguments.size(); i++) {
+                    Object value = evaluate(arguments.get(i));
+                    stack[first + i] = value;
+                }
+        }
+
+        return function.execute(this, frame, receiver);
+    }
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private Object[] evaluateArguments(Expr.Call expr) {
+        if (expr.arguments.isEmpty()) return NO_ARGUMENTS;
+
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+        return arguments;
+    }
+
+    // Check if the arguments passed in make sense
+    private void checkArity(Expr.Call expr, int arity, int count) {
+        if (count != arity) {
+            String errorMessage = String.format("Expected %d arguments but got %d instead.", arity, count);
+            throw new RuntimeError(expr.paren, errorMessage);
+        }
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        define(stmt.name, stmt.slot, stmt.isCaptured, null);
+        LoxFunction function = new LoxFunction(stmt, LoxFunction.capture(stmt, this, upvalues), false, false);
+        initialize(stmt.name, stmt.slot, stmt.isCaptured, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
 
         if (stmt.value != null)
             value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     // We employ a two step define and assign here allowing references
     // to the same class within its own methods.
     @Override
-    public Void visitClassStmt(Class stmt) {
+    public Completion visitClassStmt(Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -335,31 +694,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
         }
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.name, stmt.slot, stmt.isCaptured, null);
 
+        // The methods capture 'super' while they are created, at the top
+        // level the class pushes a frame for that
+        int frame = pushFrame(stmt.frameSize);
+        int callerBase = base;
+        if (stmt.frameSize > 0) base = frame;
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            stack[base + stmt.superSlot] = new Cell(superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
 
         for (Stmt.Function method : stmt.methods) {
-            boolean isInitializer = method.name.lexeme.equals("init");
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
-            methods.put(method.name.lexeme, function);
+            boolean isInitializer = method.name.symbol == Symbol.INIT;
+            LoxFunction function = new LoxFunction(method, LoxFunction.capture(method, this, upvalues), true,
+                    isInitializer);
+            methods.put(method.name.symbol, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+        base = callerBase;
+        top = frame;
 
-        // Return interpreter back to the environment it was previously in to
-        // continue interpreting correctly
-        if (superclass != null) {
-            environment = environment.enclosing;
-        }
-
-        environment.assign(stmt.name, klass);
-        return null;
+        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+        initialize(stmt.name, stmt.slot, stmt.isCaptured, klass);
+        return Completion.NORMAL;
     }
 
     @Override
@@ -372,27 +732,28 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Object value = evaluate(expr.value);
 
-        ((LoxInstance) object).set(expr.name, value);
+        ((LoxInstance) object).set(expr.name, value, expr.cache);
 
         return value;
     }
 
     @Override
     public Object visitThisExpr(This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        if (expr.isUpvalue) {
+            return upvalues[expr.slot].value;
+        }
+        if (expr.isCaptured) {
+            return ((Cell) stack[base + expr.slot]).value;
+        }
+        return stack[base + expr.slot];
     }
 
     @Override
     public Object visitSuperExpr(Super expr) {
-        int distance = locals.get(expr);
+        LoxClass superclass = (LoxClass) upvalues[expr.slot].value;
+        LoxInstance object = (LoxInstance)evaluate(expr.receiver);
 
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-
-        // Since we know that 'this' is bound in the environment
-        // right within the one that contains 'super'
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxFunction method = superclass.findMethod(expr.method.symbol);
 
         if (method == null) {
             throw new RuntimeError(expr.method, String.format("Undefined property '%s'.", expr.method.lexeme));
@@ -400,18 +761,4 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         return method.bind(object);
     }
-
-    public void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
-        }
-    }
 }
@@ -0,0 +1,9 @@
+package com.craftinginterpreters.lox;
+
+// A function compiled to JVM bytecode by the JvmCompiler
+interface JvmCode {
+    // Runs the function with the arguments already stored in its frame on
+    // the stack. Returns JvmRuntime.NOT_HANDLED when they are not of the
+    // types the code was compiled for, the function is then interpreted instead.
+    Object execute(Object[] stack, int frame);
+}
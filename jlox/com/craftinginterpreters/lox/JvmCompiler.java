@@ -0,0 +1,939 @@
+package com.craftinginterpreters.lox;
+
+import static com.craftinginterpreters.lox.jvm.Opcodes.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.jvm.ClassWriter;
+import com.craftinginterpreters.lox.jvm.CodeWriter;
+import com.craftinginterpreters.lox.jvm.Label;
+import com.craftinginterpreters.lox.jvm.LimitExceeded;
+
+// Compiles a Lox function to a JVM class so that HotSpot optimizes it like
+// any other Java code. Parameters, locals and intermediate results that are
+// known to always be numbers or booleans are kept unboxed in JVM locals and
+// on the operand stack, everything else is an Object handled by JvmRuntime.
+//
+// Only functions that work on their own locals and on globals are compiled.
+// Functions that declare functions or classes, use instances or read the
+// locals of an enclosing function stay in the interpreter, and so does a
+// call whose arguments are not numbers where the compiled code expects them.
+class JvmCompiler {
+    // Whether functions are compiled to JVM bytecode the first time they are called
+    static boolean enabled = false;
+
+    // Stands in for functions that cannot be compiled, so that they are not tried again
+    static final JvmCode UNSUPPORTED = (stack, frame) -> JvmRuntime.NOT_HANDLED;
+
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+
+    // What the compiled code knows about a value
+    private enum Type {
+        DOUBLE, BOOLEAN, OBJECT;
+
+        static Type join(Type a, Type b) {
+            if (a == null) return b;
+            if (b == null || a == b) return a;
+            return OBJECT;
+        }
+    }
+
+    // A parameter or local variable of the function
+    private static class Local {
+        // Null until something has been stored in it
+        Type type;
+        // Slot of the JVM local variable in the compiled method
+        int index;
+    }
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Stmt.Function function;
+    private final String className;
+
+    // The locals that variable expressions and declarations refer to
+    private final Map<Object, Local> locals = new IdentityHashMap<>();
+    private final List<Local> allLocals = new ArrayList<>();
+    private final Local[] params;
+    private final Map<Expr, Type> types = new IdentityHashMap<>();
+    private Type returnType;
+
+    // Objects the generated code refers to, e.g. tokens for error messages
+    private final List<Object> constants = new ArrayList<>();
+
+    private JvmCompiler(Stmt.Function function) {
+        this.function = function;
+        this.className = PACKAGE + "JvmFunction$" + function.name.lexeme;
+        this.params = new Local[function.params.size()];
+    }
+
+    // Compiles the function, or marks it as unsupported if it can't be
+    static void compile(Stmt.Function function, Interpreter interpreter) {
+        try {
+            function.jvm = new JvmCompiler(function).compile(interpreter);
+        } catch (Unsupported | LimitExceeded | ClassFormatError e) {
+            // A ClassFormatError means a method that is too large for the
+            // JVM. The interpreter still runs the function correctly, while
+            // any other failure is a bug and surfaces.
+            function.jvm = UNSUPPORTED;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JvmCode compile(Interpreter interpreter) throws ReflectiveOperationException {
+        // Methods keep 'this' ahead of their parameters, which the compiled
+        // code does not have
+        if (function.isMethod) throw new Unsupported();
+
+        analyze();
+
+        ClassWriter writer = new ClassWriter(V1_5, ACC_FINAL | ACC_SUPER, className, OBJECT, PACKAGE + "JvmCode");
+        writer.field(ACC_STATIC, "constants", "[" + OBJECT_DESC);
+
+        CodeWriter init = writer.method(ACC_PUBLIC, "<init>", "()V");
+        init.varInsn(ALOAD, 0);
+        init.methodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        init.insn(RETURN);
+
+        Emitter body = new Emitter(writer.method(ACC_STATIC, "body", bodyDescriptor()), interpreter);
+        body.emitBody();
+
+        emitEntry(writer.method(ACC_PUBLIC, "execute", "([" + OBJECT_DESC + "I)" + OBJECT_DESC));
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+        lookup.findStaticVarHandle(lookup.lookupClass(), "constants", Object[].class).set(constants.toArray());
+        return (JvmCode) lookup.lookupClass().getDeclaredConstructor().newInstance();
+    }
+
+    // Infers the types of the locals, which depend on each other through
+    // assignments, by repeating the analysis until none of them changes.
+    private void analyze() {
+        Analyzer analyzer = new Analyzer();
+        for (;;) {
+            analyzer.changed = false;
+            analyzer.analyzeFunction();
+            if (analyzer.changed) continue;
+
+            // Locals only assigned from other locals of unknown type
+            boolean unknown = false;
+            for (Local local : allLocals) {
+                if (local.type == null) {
+                    local.type = Type.OBJECT;
+                    unknown = true;
+                }
+            }
+            if (!unknown) break;
+        }
+
+        if (!alwaysReturns(function.body)) returnType = Type.join(returnType, Type.OBJECT);
+        if (returnType == null) returnType = Type.OBJECT;
+
+        // Parameters come first, as they are the arguments of the body method
+        int index = 0;
+        for (Local param : params) {
+            param.index = index;
+            index += param.type == Type.DOUBLE ? 2 : 1;
+        }
+        for (Local local : allLocals) {
+            if (isParam(local)) continue;
+            local.index = index;
+            index += local.type == Type.DOUBLE ? 2 : 1;
+        }
+    }
+
+    private boolean isParam(Local local) {
+        for (Local param : params) {
+            if (param == local) return true;
+        }
+        return false;
+    }
+
+    private static boolean alwaysReturns(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (alwaysReturns(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean alwaysReturns(Stmt statement) {
+        if (statement instanceof Stmt.Return) return true;
+        if (statement instanceof Stmt.Block) return alwaysReturns(((Stmt.Block) statement).statements);
+        if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            return ifStmt.elseBranch != null && alwaysReturns(ifStmt.thenBranch) && alwaysReturns(ifStmt.elseBranch);
+        }
+        return false;
+    }
+
+    private String bodyDescriptor() {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Local param : params) {
+            descriptor.append(descriptor(param.type));
+        }
+        return descriptor.append(")").append(descriptor(returnType)).toString();
+    }
+
+    private static String descriptor(Type type) {
+        switch (type) {
+            case DOUBLE: return "D";
+            case BOOLEAN: return "Z";
+            default: return OBJECT_DESC;
+        }
+    }
+
+    private int constant(Object value) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (constants.get(i) == value) return i;
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    // execute(Object[], int) checks that the arguments have the types that
+    // the body was compiled for, unboxes them and calls the body.
+    private void emitEntry(CodeWriter code) {
+        Label notHandled = new Label();
+        int temporary = 3;
+        int index = 4;
+
+        for (int i = 0; i < params.length; i++) {
+            code.varInsn(ALOAD, 1);
+            code.varInsn(ILOAD, 2);
+            code.iconst(i);
+            code.insn(IADD);
+            code.insn(AALOAD);
+
+            if (params[i].type == Type.DOUBLE) {
+                code.varInsn(ASTORE, temporary);
+                code.varInsn(ALOAD, temporary);
+                code.typeInsn(INSTANCEOF, "java/lang/Double");
+                code.jump(IFEQ, notHandled);
+                code.varInsn(ALOAD, temporary);
+                code.typeInsn(CHECKCAST, "java/lang/Double");
+                code.methodInsn(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+                code.varInsn(DSTORE, index);
+                index += 2;
+            } else {
+                code.varInsn(ASTORE, index);
+                index += 1;
+            }
+        }
+
+        index = 4;
+        for (Local param : params) {
+            if (param.type == Type.DOUBLE) {
+                code.varInsn(DLOAD, index);
+                index += 2;
+            } else {
+                code.varInsn(ALOAD, index);
+                index += 1;
+            }
+        }
+        code.methodInsn(INVOKESTATIC, className, "body", bodyDescriptor());
+        box(code, returnType);
+        code.insn(ARETURN);
+
+        code.label(notHandled);
+        code.fieldInsn(GETSTATIC, PACKAGE + "JvmRuntime", "NOT_HANDLED", OBJECT_DESC);
+        code.insn(ARETURN);
+    }
+
+    private static void box(CodeWriter code, Type type) {
+        if (type == Type.DOUBLE) {
+            code.methodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else if (type == Type.BOOLEAN) {
+            code.methodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return type == TokenType.GREATER || type == TokenType.GREATER_EQUAL
+                || type == TokenType.LESS || type == TokenType.LESS_EQUAL;
+    }
+
+    // Finds the locals every expression refers to and infers the types of the
+    // locals and expressions. Throws Unsupported for anything the Emitter
+    // does not compile.
+    private class Analyzer implements Expr.Visitor<Type>, Stmt.Visitor<Void> {
+        // The local that occupies each slot of the frame at this point of the
+        // function, blocks that follow each other reuse the same slots
+        private Local[] slots;
+        boolean changed;
+
+        void analyzeFunction() {
+            slots = new Local[function.frameSize];
+
+            for (int i = 0; i < params.length; i++) {
+                if (params[i] == null) {
+                    params[i] = new Local();
+                    allLocals.add(params[i]);
+                    params[i].type = Type.DOUBLE;
+                }
+                slots[i] = params[i];
+            }
+
+            for (Stmt statement : function.body) {
+                statement.accept(this);
+            }
+        }
+
+        private Type analyze(Expr expr) {
+            Type type = expr.accept(this);
+            types.put(expr, type);
+            return type;
+        }
+
+        private Local resolve(Object node, boolean isCaptured, int slot) {
+            // Captured variables live in Cells the compiled code does not handle
+            if (isCaptured) throw new Unsupported();
+
+            Local local = slots[slot];
+            if (local == null) throw new Unsupported();
+            locals.put(node, local);
+            return local;
+        }
+
+        private void store(Local local, Type type) {
+            Type joined = Type.join(local.type, type);
+            if (joined != local.type) {
+                local.type = joined;
+                changed = true;
+            }
+        }
+
+        @Override
+        public Type visitBinaryExpr(Expr.Binary expr) {
+            Type left = analyze(expr.left);
+            Type right = analyze(expr.right);
+
+            switch (expr.operator.type) {
+                case PLUS: case MINUS: case STAR: case SLASH:
+                    if (left != Type.BOOLEAN && left != Type.OBJECT
+                            && right != Type.BOOLEAN && right != Type.OBJECT) {
+                        return Type.DOUBLE;
+                    }
+                    return Type.OBJECT;
+                default:
+                    return Type.BOOLEAN;
+            }
+        }
+
+        @Override
+        public Type visitGroupingExpr(Expr.Grouping expr) {
+            return analyze(expr.expression);
+        }
+
+        @Override
+        public Type visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value instanceof Double) return Type.DOUBLE;
+            if (expr.value instanceof Boolean) return Type.BOOLEAN;
+            return Type.OBJECT;
+        }
+
+        @Override
+        public Type visitUnaryExpr(Expr.Unary expr) {
+            Type right = analyze(expr.right);
+            if (expr.operator.type == TokenType.BANG) return Type.BOOLEAN;
+            return right == Type.DOUBLE || right == null ? Type.DOUBLE : Type.OBJECT;
+        }
+
+        @Override
+        public Type visitVariableExpr(Expr.Variable expr) {
+            if (expr.isGlobal) return Type.OBJECT;
+            return resolve(expr, expr.isCaptured || expr.isUpvalue, expr.slot).type;
+        }
+
+        @Override
+        public Type visitAssignExpr(Expr.Assign expr) {
+            Type value = analyze(expr.value);
+            if (expr.isGlobal) return Type.OBJECT;
+
+            Local local = resolve(expr, expr.isCaptured || expr.isUpvalue, expr.slot);
+            store(local, value);
+            return local.type;
+        }
+
+        @Override
+        public Type visitLogicalExpr(Expr.Logical expr) {
+            return Type.join(analyze(expr.left), analyze(expr.right));
+        }
+
+        @Override
+        public Type visitCallExpr(Expr.Call expr) {
+            analyze(expr.callee);
+            for (Expr argument : expr.arguments) {
+                analyze(argument);
+            }
+            return Type.OBJECT;
+        }
+
+        @Override
+        public Type visitGetExpr(Expr.Get expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Type visitSetExpr(Expr.Set expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Type visitThisExpr(Expr.This expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Type visitSuperExpr(Expr.Super expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            analyze(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            analyze(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            if (stmt.isCaptured) throw new Unsupported();
+            Type type = stmt.initializer == null ? Type.OBJECT : analyze(stmt.initializer);
+
+            Local local = locals.get(stmt);
+            if (local == null) {
+                local = new Local();
+                locals.put(stmt, local);
+                allLocals.add(local);
+            }
+
+            slots[stmt.slot] = local;
+            store(local, type);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            analyze(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            analyze(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            Type type = stmt.value == null ? Type.OBJECT : analyze(stmt.value);
+            returnType = Type.join(returnType, type);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+    }
+
+    // Writes the instructions of the body method. Every expression leaves a
+    // value of the type the Analyzer inferred for it on the operand stack.
+    private class Emitter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final CodeWriter code;
+        private final Interpreter interpreter;
+
+        Emitter(CodeWriter code, Interpreter interpreter) {
+            this.code = code;
+            this.interpreter = interpreter;
+        }
+
+        void emitBody() {
+            for (Stmt statement : function.body) {
+                statement.accept(this);
+            }
+
+            // Falling off the end returns nil. When the body always returns
+            // this is never reached, but still needs a value of the right type.
+            switch (returnType) {
+                case DOUBLE:
+                    code.insn(DCONST_0);
+                    code.insn(DRETURN);
+                    break;
+                case BOOLEAN:
+                    code.insn(ICONST_0);
+                    code.insn(IRETURN);
+                    break;
+                default:
+                    code.insn(ACONST_NULL);
+                    code.insn(ARETURN);
+            }
+        }
+
+        private Type typeOf(Expr expr) {
+            return types.get(expr);
+        }
+
+        private void emit(Expr expr) {
+            expr.accept(this);
+        }
+
+        // Emits the expression converted to the given type, which is either
+        // its own type or OBJECT.
+        private void emit(Expr expr, Type type) {
+            emit(expr);
+            coerce(typeOf(expr), type);
+        }
+
+        private void coerce(Type from, Type to) {
+            if (from == to) return;
+            if (to != Type.OBJECT) throw new IllegalStateException("Cannot convert " + from + " to " + to);
+            box(code, from);
+        }
+
+        private void loadConstant(Object value, String internalName) {
+            code.fieldInsn(GETSTATIC, className, "constants", "[" + OBJECT_DESC);
+            code.iconst(constant(value));
+            code.insn(AALOAD);
+            code.typeInsn(CHECKCAST, internalName);
+        }
+
+        private void load(Local local) {
+            switch (local.type) {
+                case DOUBLE: code.varInsn(DLOAD, local.index); break;
+                case BOOLEAN: code.varInsn(ILOAD, local.index); break;
+                default: code.varInsn(ALOAD, local.index);
+            }
+        }
+
+        private void store(Local local) {
+            switch (local.type) {
+                case DOUBLE: code.varInsn(DSTORE, local.index); break;
+                case BOOLEAN: code.varInsn(ISTORE, local.index); break;
+                default: code.varInsn(ASTORE, local.index);
+            }
+        }
+
+        private void pop(Type type) {
+            code.insn(type == Type.DOUBLE ? POP2 : POP);
+        }
+
+        // Jumps to the label if the condition is falsey
+        private void emitCondition(Expr condition, Label whenFalse) {
+            while (condition instanceof Expr.Grouping) {
+                condition = ((Expr.Grouping) condition).expression;
+            }
+
+            if (condition instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) condition;
+                if (isComparison(binary.operator.type)
+                        && typeOf(binary.left) == Type.DOUBLE && typeOf(binary.right) == Type.DOUBLE) {
+                    emit(binary.left);
+                    emit(binary.right);
+
+                    // dcmpg and dcmpl differ in what they push when a value
+                    // is NaN, pick the one that makes the comparison false.
+                    switch (binary.operator.type) {
+                        case LESS:
+                            code.insn(DCMPG);
+                            code.jump(IFGE, whenFalse);
+                            break;
+                        case LESS_EQUAL:
+                            code.insn(DCMPG);
+                            code.jump(IFGT, whenFalse);
+                            break;
+                        case GREATER:
+                            code.insn(DCMPL);
+                            code.jump(IFLE, whenFalse);
+                            break;
+                        default:
+                            code.insn(DCMPL);
+                            code.jump(IFLT, whenFalse);
+                    }
+                    return;
+                }
+            }
+
+            emit(condition);
+            switch (typeOf(condition)) {
+                case BOOLEAN:
+                    code.jump(IFEQ, whenFalse);
+                    break;
+                case DOUBLE:
+                    // Numbers are always truthy
+                    code.insn(POP2);
+                    break;
+                default:
+                    code.methodInsn(INVOKESTATIC, PACKAGE + "Interpreter", "isTruthy", "(" + OBJECT_DESC + ")Z");
+                    code.jump(IFEQ, whenFalse);
+            }
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            TokenType operator = expr.operator.type;
+
+            if (isComparison(operator)) {
+                if (typeOf(expr.left) == Type.DOUBLE && typeOf(expr.right) == Type.DOUBLE) {
+                    Label whenFalse = new Label();
+                    Label end = new Label();
+                    emitCondition(expr, whenFalse);
+                    code.insn(ICONST_1);
+                    code.jump(GOTO, end);
+                    code.label(whenFalse);
+                    code.insn(ICONST_0);
+                    code.label(end);
+                    return null;
+                }
+
+                emitGeneric(expr);
+                code.typeInsn(CHECKCAST, "java/lang/Boolean");
+                code.methodInsn(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+                return null;
+            }
+
+            if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL) {
+                emit(expr.left, Type.OBJECT);
+                emit(expr.right, Type.OBJECT);
+                code.methodInsn(INVOKESTATIC, PACKAGE + "Interpreter", "isEqual",
+                        "(" + OBJECT_DESC + OBJECT_DESC + ")Z");
+                if (operator == TokenType.BANG_EQUAL) {
+                    code.insn(ICONST_1);
+                    code.insn(IXOR);
+                }
+                return null;
+            }
+
+            if (typeOf(expr) == Type.DOUBLE) {
+                emit(expr.left);
+                emit(expr.right);
+                switch (operator) {
+                    case PLUS: code.insn(DADD); break;
+                    case MINUS: code.insn(DSUB); break;
+                    case STAR: code.insn(DMUL); break;
+                    default: code.insn(DDIV);
+                }
+                return null;
+            }
+
+            emitGeneric(expr);
+            return null;
+        }
+
+        private void emitGeneric(Expr.Binary expr) {
+            emit(expr.left, Type.OBJECT);
+            emit(expr.right, Type.OBJECT);
+            loadConstant(expr, PACKAGE + "Expr$Binary");
+            code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "binary",
+                    "(" + OBJECT_DESC + OBJECT_DESC + "L" + PACKAGE + "Expr$Binary;)" + OBJECT_DESC);
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            emit(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value instanceof Double) {
+                code.dconst((double) expr.value);
+            } else if (expr.value instanceof Boolean) {
+                code.iconst((boolean) expr.value ? 1 : 0);
+            } else if (expr.value instanceof LoxString) {
+                loadConstant(expr.value, PACKAGE + "LoxString");
+            } else {
+                code.insn(ACONST_NULL);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            Type right = typeOf(expr.right);
+
+            if (expr.operator.type == TokenType.BANG) {
+                if (right == Type.DOUBLE) {
+                    // Numbers are always truthy
+                    emit(expr.right);
+                    code.insn(POP2);
+                    code.insn(ICONST_0);
+                } else if (right == Type.BOOLEAN) {
+                    emit(expr.right);
+                    code.insn(ICONST_1);
+                    code.insn(IXOR);
+                } else {
+                    emit(expr.right);
+                    code.methodInsn(INVOKESTATIC, PACKAGE + "Interpreter", "isTruthy", "(" + OBJECT_DESC + ")Z");
+                    code.insn(ICONST_1);
+                    code.insn(IXOR);
+                }
+                return null;
+            }
+
+            if (right == Type.DOUBLE) {
+                emit(expr.right);
+                code.insn(DNEG);
+                return null;
+            }
+
+            emit(expr.right, Type.OBJECT);
+            loadConstant(expr, PACKAGE + "Expr$Unary");
+            code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "unary",
+                    "(" + OBJECT_DESC + "L" + PACKAGE + "Expr$Unary;)" + OBJECT_DESC);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.isGlobal) {
+                loadConstant(interpreter.globals, PACKAGE + "Globals");
+                loadConstant(expr, PACKAGE + "Expr$Variable");
+                code.methodInsn(INVOKEVIRTUAL, PACKAGE + "Globals", "get",
+                        "(L" + PACKAGE + "Expr$Variable;)" + OBJECT_DESC);
+                return null;
+            }
+
+            load(locals.get(expr));
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            if (expr.isGlobal) {
+                emit(expr.value, Type.OBJECT);
+                loadConstant(interpreter.globals, PACKAGE + "Globals");
+                loadConstant(expr, PACKAGE + "Expr$Assign");
+                code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "assignGlobal",
+                        "(" + OBJECT_DESC + "L" + PACKAGE + "Globals;L" + PACKAGE + "Expr$Assign;)" + OBJECT_DESC);
+                return null;
+            }
+
+            Local local = locals.get(expr);
+            emit(expr.value, local.type);
+            code.insn(local.type == Type.DOUBLE ? DUP2 : DUP);
+            store(local);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            Type type = typeOf(expr);
+            boolean isOr = expr.operator.type == TokenType.OR;
+
+            if (type == Type.DOUBLE) {
+                // Numbers are always truthy, so 'or' is the left operand and
+                // 'and' the right one
+                emit(expr.left);
+                if (!isOr) {
+                    code.insn(POP2);
+                    emit(expr.right);
+                }
+                return null;
+            }
+
+            Label end = new Label();
+            emit(expr.left, type);
+            code.insn(DUP);
+            if (type == Type.OBJECT) {
+                code.methodInsn(INVOKESTATIC, PACKAGE + "Interpreter", "isTruthy", "(" + OBJECT_DESC + ")Z");
+            }
+            code.jump(isOr ? IFNE : IFEQ, end);
+            code.insn(POP);
+            emit(expr.right, type);
+            code.label(end);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            Label end = new Label();
+            emit(expr.callee, Type.OBJECT);
+
+            // Calls of the function itself skip the interpreter and the frame
+            if (canCallDirectly(expr)) {
+                Label generic = new Label();
+                code.insn(DUP);
+                loadConstant(function, PACKAGE + "Stmt$Function");
+                code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "isCallTo",
+                        "(" + OBJECT_DESC + "L" + PACKAGE + "Stmt$Function;)Z");
+                code.jump(IFEQ, generic);
+
+                code.insn(POP);
+                for (int i = 0; i < params.length; i++) {
+                    emit(expr.arguments.get(i), params[i].type);
+                }
+                code.methodInsn(INVOKESTATIC, className, "body", bodyDescriptor());
+                box(code, returnType);
+                code.jump(GOTO, end);
+
+                code.label(generic);
+            }
+
+            code.iconst(expr.arguments.size());
+            code.typeInsn(ANEWARRAY, OBJECT);
+            for (int i = 0; i < expr.arguments.size(); i++) {
+                code.insn(DUP);
+                code.iconst(i);
+                emit(expr.arguments.get(i), Type.OBJECT);
+                code.insn(AASTORE);
+            }
+            loadConstant(interpreter, PACKAGE + "Interpreter");
+            loadConstant(expr.paren, PACKAGE + "Token");
+            code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "call", "(" + OBJECT_DESC + "[" + OBJECT_DESC
+                    + "L" + PACKAGE + "Interpreter;L" + PACKAGE + "Token;)" + OBJECT_DESC);
+
+            code.label(end);
+            return null;
+        }
+
+        private boolean canCallDirectly(Expr.Call expr) {
+            if (expr.arguments.size() != params.length) return false;
+
+            for (int i = 0; i < params.length; i++) {
+                Type argument = typeOf(expr.arguments.get(i));
+                if (argument != params[i].type && params[i].type != Type.OBJECT) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            emit(stmt.expression);
+            pop(typeOf(stmt.expression));
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            emit(stmt.expression, Type.OBJECT);
+            code.methodInsn(INVOKESTATIC, PACKAGE + "JvmRuntime", "print", "(" + OBJECT_DESC + ")V");
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            Local local = locals.get(stmt);
+            if (stmt.initializer == null) {
+                code.insn(ACONST_NULL);
+            } else {
+                emit(stmt.initializer, local.type);
+            }
+            store(local);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            for (Stmt statement : stmt.statements) {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            Label elseBranch = new Label();
+            Label end = new Label();
+
+            emitCondition(stmt.condition, elseBranch);
+            stmt.thenBranch.accept(this);
+            code.jump(GOTO, end);
+
+            code.label(elseBranch);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            code.label(end);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Label start = new Label();
+            Label end = new Label();
+
+            code.label(start);
+            emitCondition(stmt.condition, end);
+            stmt.body.accept(this);
+            code.jump(GOTO, start);
+            code.label(end);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.value == null) {
+                code.insn(ACONST_NULL);
+            } else {
+                emit(stmt.value, returnType);
+            }
+
+            switch (returnType) {
+                case DOUBLE: code.insn(DRETURN); break;
+                case BOOLEAN: code.insn(IRETURN); break;
+                default: code.insn(ARETURN);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            throw new Unsupported();
+        }
+    }
+}
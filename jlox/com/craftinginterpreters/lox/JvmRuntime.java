@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+// Static helpers that code generated by the JvmCompiler calls for whatever
+// it does not implement with JVM instructions itself, e.g. operators on
+// values that are not known to be numbers. They behave exactly like the
+// Interpreter, including the errors they report.
+final class JvmRuntime {
+    static final Object NOT_HANDLED = new Object();
+
+    private static final BinaryNode GENERIC_BINARY = new BinaryNode.Generic();
+    private static final UnaryNode GENERIC_UNARY = new UnaryNode.Generic();
+
+    private JvmRuntime() {}
+
+    static Object binary(Object left, Object right, Expr.Binary expr) {
+        return GENERIC_BINARY.execute(expr, left, right);
+    }
+
+    static Object unary(Object right, Expr.Unary expr) {
+        return GENERIC_UNARY.execute(expr, right);
+    }
+
+    static Object assignGlobal(Object value, Globals globals, Expr.Assign expr) {
+        globals.assign(expr, value);
+        return value;
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    // Whether the callee is a closure of the given function declaration
+    static boolean isCallTo(Object callee, Stmt.Function declaration) {
+        return callee instanceof LoxFunction && ((LoxFunction) callee).declaration == declaration;
+    }
+
+    static Object call(Object callee, Object[] arguments, Interpreter interpreter, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren, "Can only call function and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.arity()) {
+            String errorMessage = String.format("Expected %d arguments but got %d instead.", function.arity(),
+                    arguments.length);
+            throw new RuntimeError(paren, errorMessage);
+        }
+
+        return function.call(interpreter, arguments);
+    }
+}
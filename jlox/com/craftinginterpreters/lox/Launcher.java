@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+// Entry point of a JAR built by Loxc, runs the program image it contains
+public class Launcher {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            System.out.println("Usage: java -jar program.jar");
+            System.exit(64);
+        }
+
+        InputStream image = Launcher.class.getResourceAsStream("/" + ProgramImage.RESOURCE);
+        if (image == null) {
+            System.err.println("No compiled Lox program found.");
+            System.exit(66);
+        }
+
+        List<Stmt> statements;
+        try (InputStream in = new BufferedInputStream(image)) {
+            statements = ProgramImage.read(in);
+        }
+
+        Lox.execute(statements);
+
+        if (Lox.hadRuntimeError) System.exit(70);
+    }
+}
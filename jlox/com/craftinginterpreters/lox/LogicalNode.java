@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+// Decides whether a Logical expression short-circuits on its evaluated left
+// operand, specialized and generalized the same way as BinaryNode. The right
+// operand is only evaluated when the left one does not decide the result.
+abstract class LogicalNode {
+    abstract Object execute(Interpreter interpreter, Expr.Logical expr, Object left);
+
+    static LogicalNode specialize(Expr.Logical expr, Object left) {
+        if (left instanceof Boolean) {
+            if (expr.operator.type == TokenType.OR) return new OrBoolean();
+            return new AndBoolean();
+        }
+        return new Generic();
+    }
+
+    // Called by a specialized node whose left operand is not a boolean
+    static Object generalize(Interpreter interpreter, Expr.Logical expr, Object left) {
+        expr.node = new Generic();
+        return expr.node.execute(interpreter, expr, left);
+    }
+
+    static final class AndBoolean extends LogicalNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if (!(left instanceof Boolean)) return generalize(interpreter, expr, left);
+            if (!(boolean) left) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+
+    static final class OrBoolean extends LogicalNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if (!(left instanceof Boolean)) return generalize(interpreter, expr, left);
+            if ((boolean) left) return left;
+            return interpreter.evaluate(expr.right);
+        }
+    }
+
+    static final class Generic extends LogicalNode {
+        @Override
+        Object execute(Interpreter interpreter, Expr.Logical expr, Object left) {
+            if (expr.operator.type == TokenType.OR) {
+                if (Interpreter.isTruthy(left))
+                    return left;
+            } else {
+                if (!Interpreter.isTruthy(left))
+                    return left;
+            }
+
+            return interpreter.evaluate(expr.right);
+        }
+    }
+}
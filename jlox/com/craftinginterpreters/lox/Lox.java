@@ -3,30 +3,98 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 
+import com.craftinginterpreters.lox.vm.InterpretResult;
+import com.craftinginterpreters.lox.vm.VM;
+import com.sun.management.ThreadMXBean;
+
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
+    // When set, programs are compiled to bytecode and run on the VM
+    // instead of being walked by the Interpreter.
+    private static VM vm = null;
+    // When set, programs are compiled to closures before running them
+    private static ClosureCompiler closures = null;
+    // When set, reports how many bytes running each program allocated
+    private static boolean allocStats = false;
+    // When set, reports how many expressions the ConstantFolder replaced
+    private static boolean foldStats = false;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        String script = null;
+        boolean jit = false;
+        boolean tiered = false;
+        boolean tierLog = false;
+
+        for (String arg : args) {
+            // The engines exclude each other
+            if (arg.equals("--vm") && closures == null) {
+                vm = new VM();
+            } else if (arg.equals("--closures") && vm == null) {
+                closures = new ClosureCompiler(interpreter);
+            } else if (arg.equals("--jit")) {
+                jit = true;
+            } else if (arg.equals("--tiered")) {
+                tiered = true;
+            } else if (arg.equals("--tier-log")) {
+                tierLog = true;
+            } else if (arg.equals("--ic-stats")) {
+                InlineCache.trackSites = true;
+            } else if (arg.startsWith("--ic-limit=")) {
+                InlineCache.maxEntries = parseLimit(arg.substring("--ic-limit=".length()));
+            } else if (arg.equals("--alloc-stats")) {
+                allocStats = true;
+            } else if (arg.equals("--fold-stats")) {
+                foldStats = true;
+            } else if (script == null && !arg.startsWith("--")) {
+                script = arg;
+            } else {
+                usage();
+            }
+        }
+
+        // Compiling functions to JVM code and moving them up tiers happens
+        // when the Interpreter calls them, the VM runs its own bytecode
+        if (vm != null && (jit || tiered || tierLog)) usage();
+        JvmCompiler.enabled = jit;
+        if (tiered) TieredCompiler.enable(interpreter);
+        if (tierLog) TieredCompiler.enableLog();
+
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm | [--closures] [--jit] [--tiered] [--tier-log]] [--ic-stats] [--ic-limit=N] [--alloc-stats] [--fold-stats] [script]");
+        System.exit(64);
+    }
+
+    // A limit of 0 makes every site megamorphic right away
+    private static int parseLimit(String value) {
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit >= 0) return limit;
+        } catch (NumberFormatException error) {
+            // Reported below like any other bad argument
+        }
+        usage();
+        return 0;
+    }
+
     public static void runFile(String filePath) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(filePath));
         run(new String(bytes, Charset.defaultCharset()));
+        InlineCache.printStats();
 
         if(hadError) System.exit(65);
         if(hadRuntimeError) System.exit(70);
@@ -43,9 +111,19 @@ public class Lox {
             run(line);
             hadError = false;
         }
+
+        InlineCache.printStats();
     }
 
     public static void run(String code) {
+        List<Stmt> statements = parse(code);
+        if (statements == null) return;
+
+        execute(statements);
+    }
+
+    // Runs the program through the front end, returns null if it has errors
+    static List<Stmt> parse(String code) {
         Scanner scanner = new Scanner(code);
         List<Token> tokens = scanner.scanTokens();  
 
@@ -53,22 +131,58 @@ public class Lox {
         List<Stmt> statements = parser.parse();
 
         // Stop if there was a syntax error.
-        if (hadError) return;
+        if (hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
-        if (hadError) return;
+        if (hadError) return null;
+
+        ConstantFolder folder = new ConstantFolder();
+        folder.fold(statements);
+        if (foldStats) System.err.println(String.format("Folded %d nodes.", folder.folded));
+
+        return statements;
+    }
+
+    // Runs a resolved program on the selected engine
+    static void execute(List<Stmt> statements) {
+        if (!allocStats) {
+            executeOn(statements);
+            return;
+        }
+
+        // Counts the allocations of this thread only, not those of the
+        // background compiler
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        executeOn(statements);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        System.err.println(String.format("Allocated %d bytes.", allocated));
+    }
+
+    private static void executeOn(List<Stmt> statements) {
+        if (vm != null) {
+            InterpretResult result = vm.interpret(statements);
+            if (result == InterpretResult.INTERPRET_COMPILE_ERROR) hadError = true;
+            if (result == InterpretResult.INTERPRET_RUNTIME_ERROR) hadRuntimeError = true;
+            return;
+        }
+
+        if (closures != null) {
+            closures.interpret(statements);
+            return;
+        }
 
         interpreter.interpret(statements);
     }
 
-    static void error(int line, String message) {
+    public static void error(int line, String message) {
         report(line, "", message);
     }
 
-    static void error(Token token, String message) {
+    public static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             report(token.line, "at end", message);
         } else {
@@ -1,9 +1,8 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 interface LoxCallable {
-    Object call(Interpreter interpreter, List<Object> arguments);
+    // The arguments are passed as a plain array, already checked against arity()
+    Object call(Interpreter interpreter, Object[] arguments);
 
 	int arity();
 }
@@ -1,17 +1,35 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
-
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    // Every method that can be called on an instance, including the inherited
+    // ones, so that looking one up never has to walk the superclass chain.
+    private final Map<Symbol, LoxFunction> methods;
+    // The "init" method, resolved once when the class is created
+    final LoxFunction initializer;
+    // Shape of a freshly created instance, i.e. one without fields
+    final Shape rootShape = new Shape();
+    // Largest number of fields any instance of this class has had so far
+    int instanceSize = 0;
+
+    LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods) {
         this.name = name;
-        this.methods = methods;
         this.superclass = superclass;
+
+        // Copy the inherited methods down first, so that the class's own
+        // methods override them
+        Map<Symbol, LoxFunction> flattened = new HashMap<>();
+        if (superclass != null) {
+            flattened.putAll(superclass.methods);
+        }
+        flattened.putAll(methods);
+
+        this.methods = flattened;
+        this.initializer = flattened.get(Symbol.INIT);
     }
 
     @Override
@@ -20,32 +38,22 @@ class LoxClass implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        
-        LoxFunction initializer = findMethod("init");
+
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
-	public LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-
-		return null;
+	public LoxFunction findMethod(Symbol name) {
+        return methods.get(name);
 	}
 }
@@ -1,33 +1,115 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final Boolean isInitializer;
+    final Stmt.Function declaration;
+    // The captured variables the function uses, in the order of
+    // declaration.upvalueIndexes
+    private final Cell[] upvalues;
+    private final boolean isInitializer;
+    // Methods keep 'this' in the first slot of their frame, ahead of their
+    // parameters.
+    private final boolean isMethod;
+    // The instance that 'this' refers to once the method has been bound, methods
+    // that are invoked directly get their receiver from the caller instead.
+    final LoxInstance receiver;
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer) {
+        this(declaration, upvalues, isMethod, isInitializer, null);
+    }
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    private LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isMethod, boolean isInitializer,
+            LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.isMethod = isMethod;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
+    }
+
+    // Collects the upvalues for a closure over the declaration, created in the
+    // current frame of the interpreter by a function with the given upvalues.
+    // The closure keeps only these Cells alive, not the frames they came from.
+    static Cell[] capture(Stmt.Function declaration, Interpreter interpreter, Cell[] enclosing) {
+        int[] indexes = declaration.upvalueIndexes;
+        if (indexes.length == 0) return NO_UPVALUES;
+
+        Cell[] upvalues = new Cell[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            upvalues[i] = declaration.upvalueIsLocal[i]
+                    ? (Cell) interpreter.stack[interpreter.base + indexes[i]]
+                    : enclosing[indexes[i]];
+        }
+        return upvalues;
     }
 
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    // Calls the function with 'this' bound to the given instance, which
+    // saves method calls from materializing a bound method first.
+    Object invoke(Interpreter interpreter, LoxInstance thisInstance, Object[] arguments) {
+        int frame = interpreter.pushFrame(declaration.frameSize);
+        System.arraycopy(arguments, 0, interpreter.stack, frame + firstParam(), arguments.length);
+        return execute(interpreter, frame, thisInstance);
+    }
+
+    // Methods keep 'this' in slot 0, their parameters follow it
+    int firstParam() {
+        return isMethod ? 1 : 0;
+    }
 
-        for (int i = 0; i < this.arity(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    // Runs the function in a frame that the caller pushed with the size of
+    // declaration.frameSize and stored the arguments in, starting at
+    // firstParam(). The frame is popped when the function returns.
+    Object execute(Interpreter interpreter, int frame, LoxInstance thisInstance) {
+        Object[] stack = interpreter.stack;
+        if (isMethod) stack[frame] = thisInstance;
+
+        // Closures created by the body share the captured parameters
+        int[] capturedParams = declaration.capturedParams;
+        for (int i = 0; i < capturedParams.length; i++) {
+            stack[frame + capturedParams[i]] = new Cell(stack[frame + capturedParams[i]]);
+        }
+
+        if (TieredCompiler.enabled) TieredCompiler.countCall(declaration);
+
+        if (declaration.jvm == null && JvmCompiler.enabled) {
+            JvmCompiler.compile(declaration, interpreter);
+        }
+
+        JvmCode jvm = declaration.jvm;
+        if (jvm != null) {
+            Object result = jvm.execute(stack, frame);
+            if (result != JvmRuntime.NOT_HANDLED) {
+                interpreter.top = frame;
+                return result;
+            }
         }
-        
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+
+        int callerBase = interpreter.base;
+        Cell[] callerUpvalues = interpreter.upvalues;
+        interpreter.base = frame;
+        interpreter.upvalues = upvalues;
+
+        CompiledStmt compiled = declaration.compiled;
+        Completion completion = compiled != null
+                ? compiled.execute(upvalues)
+                : interpreter.executeStatements(declaration.body);
+
+        interpreter.base = callerBase;
+        interpreter.upvalues = callerUpvalues;
+        interpreter.top = frame;
+        if (isInitializer) return thisInstance;
+
+        if (completion == Completion.RETURN) {
+            Object value = interpreter.returnValue;
+            interpreter.returnValue = null;
+            return value;
         }
-        if (isInitializer) return closure.getAt(0, "this");
         return null;
     }
 
@@ -41,9 +123,12 @@ class LoxFunction implements LoxCallable {
         return String.format("<fn %s>", declaration.name.lexeme);
     }
 
+    // Methods stored in a class are not bound to any instance yet
+    boolean isUnboundMethod() {
+        return isMethod && receiver == null;
+    }
+
 	LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-		return new LoxFunction(declaration, environment, isInitializer);
+		return new LoxFunction(declaration, upvalues, isMethod, isInitializer, instance);
 	}
 }
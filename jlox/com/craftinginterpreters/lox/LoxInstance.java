@@ -1,15 +1,20 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 // Runtime representation of an instance of a class
 class LoxInstance {
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // Describes which slot of the fields array holds each field
+    private Shape shape;
+    private Object[] fields;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        // Most instances end up with as many fields as the largest instance
+        // of their class so far, sizing for that avoids growing the array.
+        this.fields = new Object[klass.instanceSize];
     }
 
     @Override
@@ -17,19 +22,83 @@ class LoxInstance {
         return String.format("%s instance", klass.name);
     }
 
-    // Search for a field of that name, failing which we search for a method of that name
-	Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    // Search for a field of that name, failing which we search for a method of that name.
+    //
+    // The cache of the accessing site maps shapes to the slot of the field or
+    // the method that the name resolved to, since a shape only ever belongs
+    // to instances of a single class.
+	Object get(Token name, InlineCache cache) {
+        Object property = getUnbound(name, cache);
+        if (property instanceof LoxFunction && ((LoxFunction) property).isUnboundMethod()) {
+            return ((LoxFunction) property).bind(this);
         }
+        return property;
+	}
 
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+    // Like get, except that methods are returned without being bound to this
+    // instance. Fields can never hold unbound methods, so callers can tell
+    // them apart from field values.
+    Object getUnbound(Token name, InlineCache cache) {
+        int entry = cache.lookup(shape);
+        if (entry != -1) {
+            LoxFunction method = (LoxFunction) cache.targets[entry];
+            if (method == null) return fields[cache.slots[entry]];
+            return method;
+        }
+
+        int slot = shape.slotOf(name.symbol);
+        if (slot != -1) {
+            cache.add(shape, slot, null);
+            return fields[slot];
+        }
+
+        LoxFunction method = klass.findMethod(name.symbol);
+        if (method != null) {
+            cache.add(shape, -1, method);
+            return method;
+        }
 
 		throw new RuntimeError(name, String.format("Undefined property '%s'.", name.lexeme));
-	}
+    }
+
+    // The cache of the assigning site maps shapes either to the slot of an
+    // existing field or to the shape that adding the field transitions to.
+	void set(Token name, Object value, InlineCache cache) {
+        int entry = cache.lookup(shape);
+        if (entry != -1) {
+            Shape next = (Shape) cache.targets[entry];
+            if (next == null) {
+                fields[cache.slots[entry]] = value;
+            } else {
+                addField(next, value);
+            }
+            return;
+        }
+
+        int slot = shape.slotOf(name.symbol);
+        if (slot != -1) {
+            cache.add(shape, slot, null);
+            fields[slot] = value;
+            return;
+        }
 
-	void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        // Adding a new field transitions the instance to a new shape
+        Shape next = shape.withField(name.symbol);
+        cache.add(shape, -1, next);
+        addField(next, value);
 	}
+
+    private void addField(Shape next, Object value) {
+        shape = next;
+        int slot = shape.fieldCount - 1;
+
+        if (slot == fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        if (shape.fieldCount > klass.instanceSize) {
+            klass.instanceSize = shape.fieldCount;
+        }
+
+        fields[slot] = value;
+    }
 }
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// The runtime representation of Lox strings, shared by every engine.
+// Concatenating two strings copies neither of them, it creates a rope node
+// that refers to both. The characters are only gathered into a flat String
+// when the content is observed, i.e. printed, compared or hashed, and the
+// rope then keeps that String so that observing it again is free. Building
+// a string piece by piece thereby takes linear instead of quadratic time.
+// String literals are interned, like identifiers are as Symbols, so that
+// comparing two of them only compares their references.
+public final class LoxString {
+    private static final Map<String, LoxString> literals = new HashMap<>();
+
+    // The content, or null while this is a concatenation of left and right
+    private String flat;
+    private LoxString left;
+    private LoxString right;
+    private final int length;
+    private boolean interned = false;
+
+    private LoxString(String value) {
+        this.flat = value;
+        this.length = value.length();
+    }
+
+    private LoxString(LoxString left, LoxString right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+    }
+
+    // Returns the one LoxString for a literal with this content
+    public static LoxString intern(String value) {
+        LoxString string = literals.get(value);
+        if (string == null) {
+            string = new LoxString(value);
+            string.interned = true;
+            literals.put(value, string);
+        }
+        return string;
+    }
+
+    public static LoxString concat(LoxString left, LoxString right) {
+        if (left.length == 0) return right;
+        if (right.length == 0) return left;
+        return new LoxString(left, right);
+    }
+
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        // Strings built in a loop are deeply nested on the left, so walk
+        // the rope with an explicit stack instead of recursing
+        ArrayDeque<LoxString> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            LoxString node = pending.pop();
+            if (node.flat != null) {
+                builder.append(node.flat);
+            } else {
+                pending.push(node.right);
+                pending.push(node.left);
+            }
+        }
+
+        flat = builder.toString();
+        // Let go of the pieces
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof LoxString)) return false;
+
+        LoxString string = (LoxString) other;
+        // Equal literals are the same object
+        if (interned && string.interned) return false;
+        return length == string.length && toString().equals(string.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
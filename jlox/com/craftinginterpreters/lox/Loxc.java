@@ -0,0 +1,138 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+// Compiles a script ahead of time into a runnable JAR. The script goes through
+// the scanner, parser and resolver once, and the JAR holds the resolved
+// program as a ProgramImage next to the classes of the runtime. Running the
+// JAR starts the Launcher, which loads the image and executes it without
+// touching the front end.
+public class Loxc {
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+
+    // Classes that only the front end and the other engines use are left out
+    private static final Set<String> FRONT_END = Set.of("Scanner", "Parser", "Resolver", "AstPrinter", "Loxc");
+    private static final String VM_PACKAGE = PACKAGE + "vm/";
+
+    public static void main(String[] args) throws IOException {
+        String script = null;
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length && output == null) {
+                output = args[++i];
+            } else if (script == null && !args[i].startsWith("-")) {
+                script = args[i];
+            } else {
+                usage();
+            }
+        }
+        if (script == null) usage();
+
+        if (output == null) {
+            String name = Paths.get(script).getFileName().toString();
+            if (name.endsWith(".lox")) name = name.substring(0, name.length() - ".lox".length());
+            output = name + ".jar";
+        }
+
+        byte[] bytes = Files.readAllBytes(Paths.get(script));
+        List<Stmt> statements = Lox.parse(new String(bytes, Charset.defaultCharset()));
+        if (statements == null) System.exit(65);
+
+        try (OutputStream out = Files.newOutputStream(Paths.get(output))) {
+            writeJar(statements, out);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: loxc [-o output.jar] script");
+        System.exit(64);
+    }
+
+    private static void writeJar(List<Stmt> statements, OutputStream out) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Launcher.class.getName());
+
+        try (JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            jar.putNextEntry(new JarEntry(ProgramImage.RESOURCE));
+            ProgramImage.write(statements, jar);
+            jar.closeEntry();
+
+            copyRuntime(jar);
+        }
+    }
+
+    // Copies the runtime classes from wherever this class was loaded from,
+    // either the directory the sources were compiled to or a JAR
+    private static void copyRuntime(JarOutputStream jar) throws IOException {
+        Path location;
+        try {
+            location = Paths.get(Loxc.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException error) {
+            throw new IOException("Can't locate the runtime classes.", error);
+        }
+
+        if (Files.isDirectory(location)) {
+            Path root = location;
+            try (Stream<Path> files = Files.walk(root.resolve(PACKAGE))) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = root.relativize(file).toString().replace('\\', '/');
+                    if (isRuntimeClass(name)) {
+                        copyEntry(jar, name, Files.readAllBytes(file));
+                    }
+                }
+            }
+            return;
+        }
+
+        try (JarFile runtime = new JarFile(location.toFile())) {
+            Enumeration<JarEntry> entries = runtime.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!isRuntimeClass(entry.getName())) continue;
+
+                try (InputStream in = runtime.getInputStream(entry)) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    in.transferTo(bytes);
+                    copyEntry(jar, entry.getName(), bytes.toByteArray());
+                }
+            }
+        }
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        if (!name.startsWith(PACKAGE) || !name.endsWith(".class")) return false;
+        if (name.startsWith(VM_PACKAGE)) return false;
+
+        // Nested classes go with their outer class
+        String className = name.substring(name.lastIndexOf('/') + 1, name.length() - ".class".length());
+        int nested = className.indexOf('$');
+        if (nested != -1) className = className.substring(0, nested);
+
+        return !FRONT_END.contains(className);
+    }
+
+    private static void copyEntry(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+        jar.putNextEntry(new JarEntry(name));
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+}
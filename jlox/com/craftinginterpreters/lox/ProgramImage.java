@@ -0,0 +1,584 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Stores a parsed and resolved program in a compact binary form, so that it
+// can be run later without scanning, parsing and resolving it again. The image
+// holds the syntax tree together with everything the Resolver filled in, like
+// slots, upvalues and frame sizes. Nothing the runtime caches in the tree is
+// stored, a loaded program starts out the same way as a freshly resolved one.
+final class ProgramImage {
+    // Name of the resource that holds the image in a JAR built by Loxc
+    static final String RESOURCE = "program.loxi";
+
+    private static final int MAGIC = 0x4c4f5849; // "LOXI"
+    private static final int VERSION = 3;
+
+    // Tags of the nodes, 0 stands for a missing node, e.g. an if without else
+    private static final byte NONE = 0;
+
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte GROUPING = 3;
+    private static final byte LITERAL = 4;
+    private static final byte UNARY = 5;
+    private static final byte VARIABLE = 6;
+    private static final byte LOGICAL = 7;
+    private static final byte CALL = 8;
+    private static final byte GET = 9;
+    private static final byte SET = 10;
+    private static final byte THIS = 11;
+    private static final byte SUPER = 12;
+
+    private static final byte EXPRESSION = 1;
+    private static final byte IF = 2;
+    private static final byte PRINT = 3;
+    private static final byte VAR = 4;
+    private static final byte BLOCK = 5;
+    private static final byte WHILE = 6;
+    private static final byte FUNCTION = 7;
+    private static final byte CLASS = 8;
+    private static final byte RETURN = 9;
+
+    // Tags of literal values
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+
+    private ProgramImage() {}
+
+    static void write(List<Stmt> statements, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        try {
+            new Writer(data).writeStatements(statements);
+        } catch (UncheckedIOException error) {
+            throw error.getCause();
+        }
+        data.flush();
+    }
+
+    static List<Stmt> read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IOException("Not a Lox program image.");
+        int version = data.readInt();
+        if (version != VERSION) throw new IOException("Unsupported program image version " + version + ".");
+
+        return new Reader(data).readStatements();
+    }
+
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        // Loops refer to their enclosing function by the order it was written in
+        private final Map<Stmt.Function, Integer> functions = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void write(Expr expr) {
+            if (expr == null) {
+                tag(NONE);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void write(Stmt stmt) {
+            if (stmt == null) {
+                tag(NONE);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        void writeStatements(List<? extends Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                write(statement);
+            }
+        }
+
+        private void write(Token token) {
+            try {
+                out.writeByte(token.type.ordinal());
+                out.writeUTF(token.lexeme);
+                out.writeInt(token.line);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeValue(Object value) {
+            try {
+                if (value == null) {
+                    out.writeByte(NIL);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((boolean) value ? TRUE : FALSE);
+                } else if (value instanceof Double) {
+                    out.writeByte(NUMBER);
+                    out.writeDouble((double) value);
+                } else {
+                    out.writeByte(STRING);
+                    out.writeUTF(value.toString());
+                }
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void tag(byte tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeBoolean(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            write(expr.name);
+            write(expr.value);
+            writeInt(expr.slot);
+            writeBoolean(expr.isGlobal);
+            writeBoolean(expr.isUpvalue);
+            writeBoolean(expr.isCaptured);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            writeValue(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            write(expr.name);
+            writeInt(expr.slot);
+            writeBoolean(expr.isGlobal);
+            writeBoolean(expr.isUpvalue);
+            writeBoolean(expr.isCaptured);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            write(expr.left);
+            write(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            write(expr.callee);
+            write(expr.paren);
+            writeInt(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                write(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(GET);
+            write(expr.object);
+            write(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(SET);
+            write(expr.object);
+            write(expr.name);
+            write(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(THIS);
+            write(expr.keyword);
+            writeInt(expr.slot);
+            writeBoolean(expr.isUpvalue);
+            writeBoolean(expr.isCaptured);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(SUPER);
+            write(expr.keyword);
+            write(expr.method);
+            writeInt(expr.slot);
+            write(expr.receiver);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            write(stmt.condition);
+            write(stmt.thenBranch);
+            write(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            write(stmt.name);
+            write(stmt.initializer);
+            writeInt(stmt.slot);
+            writeBoolean(stmt.isCaptured);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            writeStatements(stmt.statements);
+            writeInt(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            write(stmt.keyword);
+            write(stmt.condition);
+            write(stmt.body);
+            writeInt(stmt.enclosing == null ? -1 : functions.get(stmt.enclosing));
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            int id = functions.size();
+            functions.put(stmt, id);
+            writeInt(id);
+
+            write(stmt.name);
+            writeInt(stmt.params.size());
+            for (Token param : stmt.params) {
+                write(param);
+            }
+            writeStatements(stmt.body);
+            writeInt(stmt.slot);
+            writeBoolean(stmt.isCaptured);
+            writeInt(stmt.frameSize);
+            writeInt(stmt.capturedParams.length);
+            for (int slot : stmt.capturedParams) {
+                writeInt(slot);
+            }
+            writeInt(stmt.upvalueIndexes.length);
+            for (int i = 0; i < stmt.upvalueIndexes.length; i++) {
+                writeInt(stmt.upvalueIndexes[i]);
+                writeBoolean(stmt.upvalueIsLocal[i]);
+            }
+            writeBoolean(stmt.isMethod);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            tag(CLASS);
+            write(stmt.name);
+            write(stmt.superclass);
+            writeStatements(stmt.methods);
+            writeInt(stmt.slot);
+            writeBoolean(stmt.isCaptured);
+            writeInt(stmt.superSlot);
+            writeInt(stmt.frameSize);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            write(stmt.keyword);
+            write(stmt.value);
+            return null;
+        }
+    }
+
+    private static final class Reader {
+        private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+        private final DataInputStream in;
+        // Loops read before the function they are in has been created
+        private final Map<Integer, List<Stmt.While>> pendingLoops = new HashMap<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> readStatements() throws IOException {
+            int count = in.readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private Token readToken() throws IOException {
+            TokenType type = TOKEN_TYPES[in.readUnsignedByte()];
+            String lexeme = in.readUTF();
+            int line = in.readInt();
+            return new Token(type, lexeme, null, line);
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return LoxString.intern(in.readUTF());
+                default: throw new IOException("Unknown value tag " + tag + ".");
+            }
+        }
+
+        private Expr readExpr() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+                    expr.slot = in.readInt();
+                    expr.isGlobal = in.readBoolean();
+                    expr.isUpvalue = in.readBoolean();
+                    expr.isCaptured = in.readBoolean();
+                    return expr;
+                }
+                case BINARY:
+                    return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case GROUPING:
+                    return new Expr.Grouping(readExpr());
+                case LITERAL:
+                    return new Expr.Literal(readValue());
+                case UNARY:
+                    return new Expr.Unary(readToken(), readExpr());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(readToken());
+                    expr.slot = in.readInt();
+                    expr.isGlobal = in.readBoolean();
+                    expr.isUpvalue = in.readBoolean();
+                    expr.isCaptured = in.readBoolean();
+                    return expr;
+                }
+                case LOGICAL:
+                    return new Expr.Logical(readExpr(), readToken(), readExpr());
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = in.readInt();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(readExpr());
+                    }
+                    // Caches are created like the Resolver does, which doesn't run here
+                    if (callee instanceof Expr.Get) {
+                        Expr.Get get = (Expr.Get) callee;
+                        get.cache = new InlineCache("invoke", get.name);
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case GET: {
+                    Expr.Get expr = new Expr.Get(readExpr(), readToken());
+                    expr.cache = new InlineCache("get", expr.name);
+                    return expr;
+                }
+                case SET: {
+                    Expr.Set expr = new Expr.Set(readExpr(), readToken(), readExpr());
+                    expr.cache = new InlineCache("set", expr.name);
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.slot = in.readInt();
+                    expr.isUpvalue = in.readBoolean();
+                    expr.isCaptured = in.readBoolean();
+                    return expr;
+                }
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(readToken(), readToken());
+                    expr.slot = in.readInt();
+                    expr.receiver = (Expr.This) readExpr();
+                    return expr;
+                }
+                default:
+                    throw new IOException("Unknown expression tag " + tag + ".");
+            }
+        }
+
+        private Stmt readStmt() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case EXPRESSION:
+                    return new Stmt.Expression(readExpr());
+                case IF:
+                    return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case PRINT:
+                    return new Stmt.Print(readExpr());
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(readToken(), readExpr());
+                    stmt.slot = in.readInt();
+                    stmt.isCaptured = in.readBoolean();
+                    return stmt;
+                }
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(readStatements());
+                    stmt.frameSize = in.readInt();
+                    return stmt;
+                }
+                case WHILE: {
+                    Stmt.While stmt = new Stmt.While(readToken(), readExpr(), readStmt());
+                    int enclosing = in.readInt();
+                    if (enclosing != -1) {
+                        pendingLoops.computeIfAbsent(enclosing, id -> new ArrayList<>()).add(stmt);
+                    }
+                    return stmt;
+                }
+                case FUNCTION:
+                    return readFunction();
+                case CLASS: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable) readExpr();
+                    int count = in.readInt();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function) readStmt());
+                    }
+                    Stmt.Class stmt = new Stmt.Class(name, superclass, methods);
+                    stmt.slot = in.readInt();
+                    stmt.isCaptured = in.readBoolean();
+                    stmt.superSlot = in.readInt();
+                    stmt.frameSize = in.readInt();
+                    return stmt;
+                }
+                case RETURN:
+                    return new Stmt.Return(readToken(), readExpr());
+                default:
+                    throw new IOException("Unknown statement tag " + tag + ".");
+            }
+        }
+
+        private Stmt.Function readFunction() throws IOException {
+            int id = in.readInt();
+            Token name = readToken();
+            int count = in.readInt();
+            List<Token> params = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                params.add(readToken());
+            }
+            List<Stmt> body = readStatements();
+
+            Stmt.Function function = new Stmt.Function(name, params, body);
+            function.slot = in.readInt();
+            function.isCaptured = in.readBoolean();
+            function.frameSize = in.readInt();
+            function.capturedParams = new int[in.readInt()];
+            for (int i = 0; i < function.capturedParams.length; i++) {
+                function.capturedParams[i] = in.readInt();
+            }
+            int upvalueCount = in.readInt();
+            function.upvalueIndexes = new int[upvalueCount];
+            function.upvalueIsLocal = new boolean[upvalueCount];
+            for (int i = 0; i < upvalueCount; i++) {
+                function.upvalueIndexes[i] = in.readInt();
+                function.upvalueIsLocal[i] = in.readBoolean();
+            }
+            function.isMethod = in.readBoolean();
+
+            List<Stmt.While> loops = pendingLoops.remove(id);
+            if (loops != null) {
+                for (Stmt.While loop : loops) {
+                    loop.enclosing = function;
+                }
+            }
+            return function;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -27,15 +29,27 @@ import com.craftinginterpreters.lox.Stmt.Return;
 import com.craftinginterpreters.lox.Stmt.Var;
 import com.craftinginterpreters.lox.Stmt.While;
 
+// Besides checking the program, the Resolver decides where every local
+// variable lives. Locals get a slot in the frame of their function on the
+// Interpreter's value stack, which is reused once the function returns.
+// Variables that a nested function refers to are captured and can outlive
+// the frame, their slot holds a Cell instead. Each function lists the
+// captured variables it uses, including those of functions nested in it, as
+// its upvalues, and refers to them by their index in that list. Whether a
+// variable is captured is only known once its scope has been resolved, so
+// that's when its declaration and the references from its own function are
+// filled in.
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    // Declaration of the function being resolved, null in top-level code
+    private Function currentDeclaration = null;
+    // Upvalues of the function being resolved, null in top-level code
+    private Upvalues currentUpvalues = null;
     private ClassType currentClass = ClassType.NONE;
-
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
-    }
+    // Next free slot and number of slots used so far in the current frame
+    private int nextSlot = 0;
+    private int frameSize = 0;
 
     private enum FunctionType {
         NONE, FUNCTION, METHOD, INITIALIZER
@@ -45,6 +59,55 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         NONE, CLASS, SUBCLASS
     }
 
+    // Marks the declaration of a global variable, which has no slot
+    static final int GLOBAL = -1;
+
+    private static class Scope {
+        // In the order they were declared in
+        final Map<String, Local> locals = new LinkedHashMap<>();
+        // Upvalues of the function whose frame holds the locals
+        final Upvalues function;
+        // Slot of the frame where the locals of the scope start
+        final int firstSlot;
+
+        Scope(Upvalues function, int firstSlot) {
+            this.function = function;
+            this.firstSlot = firstSlot;
+        }
+    }
+
+    // The captured variables a function uses, each either a slot of the
+    // enclosing function's frame or one of its upvalues
+    private static class Upvalues {
+        final Upvalues enclosing;
+        final List<Integer> indexes = new ArrayList<>();
+        final List<Boolean> isLocal = new ArrayList<>();
+
+        Upvalues(Upvalues enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private static class Local {
+        // Index of the variable in the frame of its function
+        final int slot;
+        // The statement that declares the variable, if any
+        final Stmt declaration;
+        // Whether or not we have resolved the initializer
+        boolean defined = false;
+        // Whether a function nested in the variable's function refers to it
+        boolean captured = false;
+        // Whether the variable is assigned after its declaration
+        boolean reassigned = false;
+        // References from the variable's own function
+        final List<Expr> references = new ArrayList<>();
+
+        Local(int slot, Stmt declaration) {
+            this.slot = slot;
+            this.declaration = declaration;
+        }
+    }
+
     @Override
     public Void visitExpressionStmt(Expression stmt) {
         resolve(stmt.expression);
@@ -69,7 +132,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -79,14 +142,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Block stmt) {
+        // Outside of functions, the outermost block has a frame of its own
+        boolean isFrame = scopes.isEmpty();
+        if (isFrame) frameSize = 0;
+
         beginScope();
         resolve(stmt.statements);
         endScope();
+
+        if (isFrame) stmt.frameSize = frameSize;
         return null;
     }
 
     @Override
     public Void visitWhileStmt(While stmt) {
+        stmt.enclosing = currentDeclaration;
         resolve(stmt.condition);
         resolve(stmt.body);
         return null;
@@ -96,7 +166,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitFunctionStmt(Function stmt) {
         // We declare and define the function name first before resolving
         // it, this allows the same function to call itself recursively.
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -153,7 +223,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        Local local = scopes.isEmpty() ? null : scopes.peek().locals.get(expr.name.lexeme);
+        if (local != null && !local.defined) {
             Lox.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
@@ -171,6 +242,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitCallExpr(Call expr) {
+        // A method call looks the method up through the cache of its Get
+        if (expr.callee instanceof Get) {
+            Get get = (Get) expr.callee;
+            get.cache = new InlineCache("invoke", get.name);
+        }
         resolve(expr.callee);
         for (Expr argument : expr.arguments) {
             resolve(argument);
@@ -183,7 +259,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         // Throw error on resolution of class that inherits from self.
@@ -196,14 +272,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(stmt.superclass);
         }
 
+        // Outside of functions, the class needs a frame to hold 'super'
+        boolean isFrame = scopes.isEmpty();
+        int enclosingFrameSize = frameSize;
+        if (isFrame) frameSize = 0;
+
+        // The methods capture 'super' from a scope around them
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superSlot = declareSynthetic("super").slot;
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -212,11 +291,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null)
             endScope();
 
+        if (isFrame) {
+            stmt.frameSize = frameSize;
+            frameSize = enclosingFrameSize;
+        }
+
         currentClass = enclosingClass;
         return null;
     }
@@ -224,6 +306,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // Since properties are looked up dynamically, we cannot resolve them.
     @Override
     public Void visitGetExpr(Get expr) {
+        // Caches are created here once so that every engine and tier running
+        // the node shares them, instead of creating them on first use
+        if (expr.cache == null) expr.cache = new InlineCache("get", expr.name);
         resolve(expr.object);
         return null;
     }
@@ -232,6 +317,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // the object
     @Override
     public Void visitSetExpr(Set expr) {
+        expr.cache = new InlineCache("set", expr.name);
         resolve(expr.value);
         resolve(expr.object);
         return null;
@@ -257,6 +343,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         resolveLocal(expr, expr.keyword);
+
+        // The method is called on 'this', which is resolved like any other variable
+        expr.receiver = new This(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        resolveLocal(expr.receiver, expr.receiver.keyword);
         return null;
     }
 
@@ -275,11 +365,30 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope(currentUpvalues, nextSlot));
     }
 
-    private void endScope() {
-        scopes.pop();
+    // Now that every reference to the scope's variables has been seen, we
+    // know which of them are captured and can fill in their declarations and
+    // the references from their own function
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+
+        for (Local local : scope.locals.values()) {
+            if (local.declaration != null) {
+                resolveDeclaration(local.declaration, local.slot, local.captured);
+            }
+            if (local.declaration instanceof Var) {
+                ((Var) local.declaration).isReassigned = local.reassigned;
+            }
+            for (Expr reference : local.references) {
+                resolveReference(reference, local);
+            }
+        }
+
+        // The slots of the scope's locals are free again for the next scope
+        nextSlot = scope.firstSlot;
+        return scope;
     }
 
     private void define(Token name) {
@@ -287,13 +396,17 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             return;
 
         // Mark it as fully initialized and ready for use.
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().locals.get(name.lexeme).defined = true;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty())
+    // Declares a variable in the current scope. Its declaration learns where
+    // the variable lives when the scope ends, or right away for a global.
+    private void declare(Token name, Stmt declaration) {
+        if (scopes.isEmpty()) {
+            if (declaration != null) resolveDeclaration(declaration, GLOBAL, false);
             return;
-        Map<String, Boolean> scope = scopes.peek();
+        }
+        Map<String, Local> scope = scopes.peek().locals;
 
         // Throw an error if the user declares the same variable
         // twice in a particular scope
@@ -303,20 +416,115 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         // Mark it as not ready yet, i.e. whether or not we have resolved
         // the initializer
-        scope.put(name.lexeme, false);
+        scope.put(name.lexeme, allocate(declaration));
+    }
+
+    // Declares and defines a variable that is bound implicitly by the
+    // interpreter, e.g. 'this' and 'super'
+    private Local declareSynthetic(String name) {
+        Local local = allocate(null);
+        local.defined = true;
+        scopes.peek().locals.put(name, local);
+        return local;
+    }
+
+    private Local allocate(Stmt declaration) {
+        Local local = new Local(nextSlot++, declaration);
+        frameSize = Math.max(frameSize, nextSlot);
+        return local;
     }
 
     // Suppose that we never find the variable in any scope, we then assume
     // it must be defined in the global scope
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                // Passing in the number of scopes between the current innermost scope and
-                // the scope in which the variable was found.
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Scope scope = scopes.get(i);
+            Local local = scope.locals.get(name.lexeme);
+            if (local != null) {
+                if (expr instanceof Assign) local.reassigned = true;
+                // Lets the ConstantFolder find the initializer of the variable
+                if (expr instanceof Variable && local.declaration instanceof Var) {
+                    ((Variable) expr).declaration = (Var) local.declaration;
+                }
+                if (scope.function == currentUpvalues) {
+                    local.references.add(expr);
+                } else {
+                    // Referring to it from a nested function means that the
+                    // variable can outlive the frame of its own function
+                    local.captured = true;
+                    resolveUpvalue(expr, capture(currentUpvalues, scope, local));
+                }
                 return;
             }
         }
+
+        if (expr instanceof Variable) {
+            ((Variable) expr).isGlobal = true;
+        } else if (expr instanceof Assign) {
+            ((Assign) expr).isGlobal = true;
+        }
+    }
+
+    private void resolveDeclaration(Stmt declaration, int slot, boolean captured) {
+        if (declaration instanceof Var) {
+            ((Var) declaration).slot = slot;
+            ((Var) declaration).isCaptured = captured;
+        } else if (declaration instanceof Function) {
+            ((Function) declaration).slot = slot;
+            ((Function) declaration).isCaptured = captured;
+        } else if (declaration instanceof Class) {
+            ((Class) declaration).slot = slot;
+            ((Class) declaration).isCaptured = captured;
+        }
+    }
+
+    // Returns the index of the variable among the upvalues of the function,
+    // which captures it from its enclosing function, and that one from its
+    // own enclosing function, up to the function that declares the variable
+    private int capture(Upvalues function, Scope scope, Local local) {
+        if (function.enclosing == scope.function) {
+            return addUpvalue(function, local.slot, true);
+        }
+        return addUpvalue(function, capture(function.enclosing, scope, local), false);
+    }
+
+    private int addUpvalue(Upvalues function, int index, boolean isLocal) {
+        for (int i = 0; i < function.indexes.size(); i++) {
+            if (function.indexes.get(i) == index && function.isLocal.get(i) == isLocal) return i;
+        }
+        function.indexes.add(index);
+        function.isLocal.add(isLocal);
+        return function.indexes.size() - 1;
+    }
+
+    // A reference from the function that declares the variable finds it in
+    // the slot of its frame, which holds a Cell if the variable is captured
+    private void resolveReference(Expr expr, Local local) {
+        if (expr instanceof Variable) {
+            ((Variable) expr).slot = local.slot;
+            ((Variable) expr).isCaptured = local.captured;
+        } else if (expr instanceof Assign) {
+            ((Assign) expr).slot = local.slot;
+            ((Assign) expr).isCaptured = local.captured;
+        } else if (expr instanceof This) {
+            ((This) expr).slot = local.slot;
+            ((This) expr).isCaptured = local.captured;
+        }
+    }
+
+    private void resolveUpvalue(Expr expr, int index) {
+        if (expr instanceof Variable) {
+            ((Variable) expr).slot = index;
+            ((Variable) expr).isUpvalue = true;
+        } else if (expr instanceof Assign) {
+            ((Assign) expr).slot = index;
+            ((Assign) expr).isUpvalue = true;
+        } else if (expr instanceof This) {
+            ((This) expr).slot = index;
+            ((This) expr).isUpvalue = true;
+        } else if (expr instanceof Super) {
+            ((Super) expr).slot = index;
+        }
     }
 
     // Create a new scope, then define all parameters before resolving the body.
@@ -326,17 +534,59 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // go all the way and analyse the body too.
     private void resolveFunction(Function stmt, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        currentDeclaration = stmt;
+        stmt.isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+
+        // The function gets a frame of its own
+        int enclosingNextSlot = nextSlot;
+        int enclosingFrameSize = frameSize;
+        Upvalues enclosingUpvalues = currentUpvalues;
+        nextSlot = 0;
+        frameSize = 0;
+        currentUpvalues = new Upvalues(enclosingUpvalues);
 
         beginScope();
+
+        // Methods find 'this' in the first slot of their own scope, which
+        // lets the interpreter call them without binding them first.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            declareSynthetic("this");
+        }
+
         for (Token param : stmt.params) {
-            declare(param);
+            declare(param, null);
             define(param);
         }
 
         resolve(stmt.body);
-        endScope();
+        Scope scope = endScope();
+        stmt.frameSize = frameSize;
+
+        // The parameters, including 'this', were declared first, so they occupy
+        // the first slots of the frame.
+        int paramCount = stmt.params.size() + (stmt.isMethod ? 1 : 0);
+        int[] capturedParams = new int[paramCount];
+        int count = 0;
+        for (Local local : scope.locals.values()) {
+            if (local.slot >= paramCount) break;
+            if (local.captured) capturedParams[count++] = local.slot;
+        }
+        stmt.capturedParams = Arrays.copyOf(capturedParams, count);
+
+        int upvalueCount = currentUpvalues.indexes.size();
+        stmt.upvalueIndexes = new int[upvalueCount];
+        stmt.upvalueIsLocal = new boolean[upvalueCount];
+        for (int i = 0; i < upvalueCount; i++) {
+            stmt.upvalueIndexes[i] = currentUpvalues.indexes.get(i);
+            stmt.upvalueIsLocal[i] = currentUpvalues.isLocal.get(i);
+        }
 
+        nextSlot = enclosingNextSlot;
+        frameSize = enclosingFrameSize;
+        currentUpvalues = enclosingUpvalues;
         currentFunction = enclosingFunction;
+        currentDeclaration = enclosingDeclaration;
     }
 }
@@ -160,7 +160,7 @@ class Scanner {
 
         // Trim the surrounding quotes around the string
         String value = source.substring(start + 1, current - 1);
-        addToken(STRING, value);
+        addToken(STRING, LoxString.intern(value));
      }
 
      private void number() {
@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Describes the layout of an instance's fields, i.e. which slot of the
+// instance's field array each property name lives in. Instances of the same
+// class that had their fields added in the same order share a single Shape,
+// adding a new field moves an instance to the next Shape in the chain.
+class Shape {
+    // Slot of each field, shared by all instances with this shape
+    private final Map<Symbol, Integer> slots;
+    // Shapes that instances of this shape move to when a field is added
+    private final Map<Symbol, Shape> transitions = new HashMap<>();
+    final int fieldCount;
+
+    // Creates the empty shape that every instance of a class starts out with
+    Shape() {
+        this.slots = new HashMap<>();
+        this.fieldCount = 0;
+    }
+
+    private Shape(Shape parent, Symbol field) {
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(field, parent.fieldCount);
+        this.fieldCount = parent.fieldCount + 1;
+    }
+
+    // Returns the slot of the field, or -1 if instances of this shape do not have it
+    int slotOf(Symbol field) {
+        Integer slot = slots.get(field);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape withField(Symbol field) {
+        Shape next = transitions.get(field);
+        if (next == null) {
+            next = new Shape(this, field);
+            transitions.put(field, next);
+        }
+        return next;
+    }
+}
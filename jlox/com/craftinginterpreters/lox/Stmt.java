@@ -2,8 +2,8 @@ package com.craftinginterpreters.lox;
 
 import java.util.List;
 
-abstract class Stmt {
-  interface Visitor<R> {
+public abstract class Stmt {
+  public interface Visitor<R> {
     R visitExpressionStmt(Expression stmt);
     R visitIfStmt(If stmt);
     R visitPrintStmt(Print stmt);
@@ -14,18 +14,18 @@ abstract class Stmt {
     R visitClassStmt(Class stmt);
     R visitReturnStmt(Return stmt);
   }
-  static class Expression extends Stmt {
+  public static class Expression extends Stmt {
     Expression(Expr expression){
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitExpressionStmt(this);
     }
-    final Expr expression;
+    public Expr expression;
   }
-  static class If extends Stmt {
+  public static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch){
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -33,62 +33,71 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitIfStmt(this);
     }
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
+    public Expr condition;
+    public final Stmt thenBranch;
+    public final Stmt elseBranch;
   }
-  static class Print extends Stmt {
+  public static class Print extends Stmt {
     Print(Expr expression){
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitPrintStmt(this);
     }
-    final Expr expression;
+    public Expr expression;
   }
-  static class Var extends Stmt {
+  public static class Var extends Stmt {
     Var(Token name, Expr initializer){
       this.name = name;
       this.initializer = initializer;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVarStmt(this);
     }
-    final Token name;
-    final Expr initializer;
+    public final Token name;
+    public Expr initializer;
+    public int slot;
+    public boolean isCaptured;
+    public boolean isReassigned;
   }
-  static class Block extends Stmt {
+  public static class Block extends Stmt {
     Block(List<Stmt> statements){
       this.statements = statements;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
-    final List<Stmt> statements;
+    public final List<Stmt> statements;
+    public int frameSize;
   }
-  static class While extends Stmt {
-    While(Expr condition, Stmt body){
+  public static class While extends Stmt {
+    While(Token keyword, Expr condition, Stmt body){
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitWhileStmt(this);
     }
-    final Expr condition;
-    final Stmt body;
+    public final Token keyword;
+    public Expr condition;
+    public final Stmt body;
+    public Stmt.Function enclosing;
+    public int backEdges;
+    public volatile CompiledStmt osr;
   }
-  static class Function extends Stmt {
+  public static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body){
       this.name = name;
       this.params = params;
@@ -96,14 +105,26 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
     }
-    final Token name;
-    final List<Token> params;
-    final List<Stmt> body;
+    public final Token name;
+    public final List<Token> params;
+    public final List<Stmt> body;
+    public int slot;
+    public boolean isCaptured;
+    public int frameSize;
+    public int[] capturedParams;
+    public int[] upvalueIndexes;
+    public boolean[] upvalueIsLocal;
+    public boolean isMethod;
+    public volatile CompiledStmt compiled;
+    public volatile JvmCode jvm;
+    public int calls;
+    public int backEdges;
+    public int tier;
   }
-  static class Class extends Stmt {
+  public static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods){
       this.name = name;
       this.superclass = superclass;
@@ -111,26 +132,30 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
     }
-    final Token name;
-    final Expr.Variable superclass;
-    final List<Stmt.Function> methods;
+    public final Token name;
+    public final Expr.Variable superclass;
+    public final List<Stmt.Function> methods;
+    public int slot;
+    public boolean isCaptured;
+    public int superSlot;
+    public int frameSize;
   }
-  static class Return extends Stmt {
+  public static class Return extends Stmt {
     Return(Token keyword, Expr value){
       this.keyword = keyword;
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
-    final Token keyword;
-    final Expr value;
+    public final Token keyword;
+    public Expr value;
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
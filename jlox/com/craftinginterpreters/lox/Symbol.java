@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// An interned identifier. The scanner turns every identifier into the one
+// Symbol for its name, so runtime tables of globals, fields and methods can
+// compare names by identity and hash them by their precomputed id instead
+// of going through String.equals and String.hashCode.
+public final class Symbol {
+    private static final Map<String, Symbol> table = new HashMap<>();
+
+    public static final Symbol INIT = intern("init");
+
+    public final String name;
+    // Unique among all symbols, ids are handed out densely from 0
+    public final int id;
+
+    private Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    public static Symbol intern(String name) {
+        Symbol symbol = table.get(name);
+        if (symbol == null) {
+            symbol = new Symbol(name, table.size());
+            table.put(name, symbol);
+        }
+        return symbol;
+    }
+
+    // Symbols are unique, so the identity equals inherited from Object is
+    // the right one and the id makes a perfect hash
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,137 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Moves functions that turn out to be hot to faster tiers while the program
+// keeps running. Every function counts its calls and the iterations of its
+// loops. Once the count crosses a threshold the function is queued for the
+// next tier, first the ClosureCompiler and then the JvmCompiler, on a single
+// background thread. The compiled code is published through the volatile
+// fields of Stmt.Function, so the next call of the function picks it up.
+//
+// The counts live on the declaration, so all closures of a function share them.
+//
+// Loops also count their own iterations, since a long loop at the top level or
+// in a function that is called once never gets to the next call. A hot loop is
+// compiled on its own and the Interpreter continues the loop in the compiled
+// code at its next iteration (on-stack replacement).
+final class TieredCompiler {
+    static final int CLOSURE_THRESHOLD = 1_000;
+    static final int JVM_THRESHOLD = 10_000;
+    static final int OSR_THRESHOLD = 1_000;
+
+    // Tiers that a function is running in or has been queued for
+    private static final int INTERPRETED = 0;
+    private static final int CLOSURES = 1;
+    private static final int JVM = 2;
+
+    static boolean enabled = false;
+    // Whether tier transitions are printed
+    private static boolean log = false;
+
+    private static Interpreter interpreter;
+    private static ClosureCompiler closures;
+    private static ExecutorService compiler;
+
+    private TieredCompiler() {}
+
+    static void enable(Interpreter runtime) {
+        enabled = true;
+        interpreter = runtime;
+        closures = new ClosureCompiler(runtime);
+        compiler = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "lox-compiler");
+            // Don't keep the program alive for code nobody will run anymore
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static void enableLog() {
+        log = true;
+        log(String.format("thresholds: closures at %d, JVM bytecode at %d calls and loop iterations,"
+                + " on-stack replacement at %d iterations of one loop",
+                CLOSURE_THRESHOLD, JVM_THRESHOLD, OSR_THRESHOLD));
+    }
+
+    static void countCall(Stmt.Function function) {
+        function.calls++;
+        checkThresholds(function);
+    }
+
+    static void countBackEdge(Stmt.Function function) {
+        function.backEdges++;
+        checkThresholds(function);
+    }
+
+    static void countLoopBackEdge(Stmt.While loop) {
+        if (++loop.backEdges != OSR_THRESHOLD) return;
+
+        log(String.format("loop at line %d reached %d iterations, queued for on-stack replacement",
+                loop.keyword.line, loop.backEdges));
+
+        compiler.execute(() -> {
+            long start = System.nanoTime();
+            closures.compileLoop(loop);
+
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            log(String.format("loop at line %d continues as closures (compiled in %.2f ms)",
+                    loop.keyword.line, millis));
+        });
+    }
+
+    private static void checkThresholds(Stmt.Function function) {
+        int count = function.calls + function.backEdges;
+
+        if (function.tier == INTERPRETED && count >= CLOSURE_THRESHOLD) {
+            // Programs run by the ClosureCompiler start out in that tier
+            if (function.compiled != null) {
+                function.tier = CLOSURES;
+                return;
+            }
+
+            function.tier = CLOSURES;
+            queue(function, CLOSURES);
+        } else if (function.tier == CLOSURES && count >= JVM_THRESHOLD) {
+            function.tier = JVM;
+            queue(function, JVM);
+        }
+    }
+
+    private static void queue(Stmt.Function function, int tier) {
+        log(String.format("'%s' reached %d calls and %d loop iterations, queued for %s",
+                function.name.lexeme, function.calls, function.backEdges, describe(tier)));
+
+        compiler.execute(() -> {
+            long start = System.nanoTime();
+
+            if (tier == CLOSURES) {
+                closures.compileFunction(function);
+            } else {
+                JvmCompiler.compile(function, interpreter);
+            }
+
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+            if (tier == JVM && function.jvm == JvmCompiler.UNSUPPORTED) {
+                log(String.format("'%s' can't be compiled to %s, stays in %s",
+                        function.name.lexeme, describe(JVM), describe(CLOSURES)));
+            } else {
+                log(String.format("'%s' now runs as %s (compiled in %.2f ms)",
+                        function.name.lexeme, describe(tier), millis));
+            }
+        });
+    }
+
+    private static String describe(int tier) {
+        switch (tier) {
+            case CLOSURES: return "closures";
+            case JVM: return "JVM bytecode";
+            default: return "interpreter";
+        }
+    }
+
+    private static void log(String message) {
+        if (log) System.err.println("[tier] " + message);
+    }
+}
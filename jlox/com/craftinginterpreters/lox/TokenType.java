@@ -1,6 +1,6 @@
 package com.craftinginterpreters.lox;
 
-enum TokenType {
+public enum TokenType {
     // Single char tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, COMMA, 
     DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+// The operation a Unary expression performs on its evaluated operand,
+// specialized and generalized the same way as BinaryNode.
+abstract class UnaryNode {
+    abstract Object execute(Expr.Unary expr, Object right);
+
+    // Evaluates the operand and applies the node to it
+    Object evaluate(Interpreter interpreter, Expr.Unary expr) {
+        return execute(expr, interpreter.evaluate(expr.right));
+    }
+
+    static UnaryNode specialize(Expr.Unary expr, Object right) {
+        if (expr.operator.type == TokenType.MINUS && right instanceof Double) return new NegateNumber();
+        if (expr.operator.type == TokenType.BANG && right instanceof Boolean) return new NotBoolean();
+        return new Generic();
+    }
+
+    // Called by a specialized node whose operand is not of its type
+    static Object generalize(Expr.Unary expr, Object right) {
+        expr.node = new Generic();
+        return expr.node.execute(expr, right);
+    }
+
+    static final class NegateNumber extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary expr, Object right) {
+            if (right instanceof Double) return -(double) right;
+            return generalize(expr, right);
+        }
+
+        // Negates the operand as a primitive double, like the arithmetic in
+        // BinaryNode
+        double executeDouble(Interpreter interpreter, Expr.Unary expr) {
+            try {
+                return -interpreter.evaluateDouble(expr.right);
+            } catch (UnexpectedValue unexpected) {
+                throw new UnexpectedValue(generalize(expr, unexpected.value));
+            }
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Expr.Unary expr) {
+            try {
+                return executeDouble(interpreter, expr);
+            } catch (UnexpectedValue unexpected) {
+                return unexpected.value;
+            }
+        }
+    }
+
+    static final class NotBoolean extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary expr, Object right) {
+            if (right instanceof Boolean) return !(boolean) right;
+            return generalize(expr, right);
+        }
+    }
+
+    static final class Generic extends UnaryNode {
+        @Override
+        Object execute(Expr.Unary expr, Object right) {
+            switch (expr.operator.type) {
+                case MINUS:
+                    return -(double) right;
+                case BANG:
+                    return !Interpreter.isTruthy(right);
+                default:
+                    return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by Interpreter.evaluateDouble when an operand that a node expected
+// to be a number evaluates to something else. It carries that value to the
+// node, which then generalizes. Nodes only generalize once, so this is rare
+// and skips filling in a stack trace.
+class UnexpectedValue extends RuntimeException {
+    final Object value;
+
+    UnexpectedValue(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
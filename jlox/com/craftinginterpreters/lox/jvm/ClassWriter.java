@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes a class file with fields and methods, which is all the code
+// generator needs. Methods only carry a Code attribute, so classes must
+// use a version that does not require stack map frames, e.g. V1_5.
+public class ClassWriter {
+    private final ConstantPool pool = new ConstantPool();
+    private final int version;
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<Member> fields = new ArrayList<>();
+    private final List<Member> methods = new ArrayList<>();
+
+    private static class Member {
+        final int access;
+        final int name;
+        final int descriptor;
+        final CodeWriter code;
+
+        Member(int access, int name, int descriptor, CodeWriter code) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+    }
+
+    public ClassWriter(int version, int access, String name, String superName, String... interfaceNames) {
+        this.version = version;
+        this.access = access;
+        this.thisClass = pool.classRef(name);
+        this.superClass = pool.classRef(superName);
+        this.interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; i++) {
+            interfaces[i] = pool.classRef(interfaceNames[i]);
+        }
+    }
+
+    public void field(int access, String name, String descriptor) {
+        fields.add(new Member(access, pool.utf8(name), pool.utf8(descriptor), null));
+    }
+
+    // Returns the writer for the method's instructions
+    public CodeWriter method(int access, String name, String descriptor) {
+        int argumentSlots = CodeWriter.argumentSlots(descriptor);
+        if ((access & Opcodes.ACC_STATIC) == 0) argumentSlots++;
+
+        CodeWriter code = new CodeWriter(pool, argumentSlots);
+        methods.add(new Member(access, pool.utf8(name), pool.utf8(descriptor), code));
+        return code;
+    }
+
+    public byte[] toByteArray() {
+        // Names every attribute refers to have to be in the pool before it is written
+        int codeAttribute = pool.utf8("Code");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(version);
+            pool.writeTo(out);
+
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+
+            out.writeShort(fields.size());
+            for (Member field : fields) {
+                out.writeShort(field.access);
+                out.writeShort(field.name);
+                out.writeShort(field.descriptor);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Member method : methods) {
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+
+                byte[] code = method.code.toByteArray();
+                out.writeShort(1);
+                out.writeShort(codeAttribute);
+                out.writeInt(12 + code.length);
+                out.writeShort(method.code.maxStack);
+                out.writeShort(method.code.maxLocals);
+                out.writeInt(code.length);
+                out.write(code);
+                // No exception handlers and no attributes of the code
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.craftinginterpreters.lox.jvm;
+
+import static com.craftinginterpreters.lox.jvm.Opcodes.*;
+
+import java.util.Arrays;
+
+// Writes the instructions of one method. Besides the bytes it tracks the
+// depth of the operand stack and the local variables in use, which the
+// Code attribute has to declare.
+public class CodeWriter {
+    private final ConstantPool pool;
+    private byte[] code = new byte[64];
+    private int length = 0;
+
+    // Depth of the operand stack at the current position, -1 after an
+    // unconditional jump or return until the next label is placed.
+    private int stackDepth = 0;
+    int maxStack = 0;
+    int maxLocals;
+
+    CodeWriter(ConstantPool pool, int argumentSlots) {
+        this.pool = pool;
+        this.maxLocals = argumentSlots;
+    }
+
+    // Instructions without operands
+    public void insn(int opcode) {
+        write(opcode);
+
+        switch (opcode) {
+            case ACONST_NULL: case ICONST_0: case ICONST_1: case DUP:
+                adjust(1);
+                break;
+            case DCONST_0: case DUP2:
+                adjust(2);
+                break;
+            case AALOAD: case POP: case IADD: case IXOR: case IRETURN: case ARETURN:
+                adjust(-1);
+                break;
+            case POP2: case DADD: case DSUB: case DMUL: case DDIV: case DRETURN:
+                adjust(-2);
+                break;
+            case DCMPL: case DCMPG: case AASTORE:
+                adjust(-3);
+                break;
+            case SWAP: case DNEG: case RETURN:
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported instruction " + opcode);
+        }
+
+        if (opcode == IRETURN || opcode == DRETURN || opcode == ARETURN || opcode == RETURN) {
+            stackDepth = -1;
+        }
+    }
+
+    public void iconst(int value) {
+        if (value == 0 || value == 1) {
+            insn(value == 0 ? ICONST_0 : ICONST_1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            write(BIPUSH);
+            write(value);
+            adjust(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            write(SIPUSH);
+            writeShort(value);
+            adjust(1);
+        } else {
+            ldc(pool.integer(value), 1);
+        }
+    }
+
+    public void dconst(double value) {
+        write(LDC2_W);
+        writeShort(pool.doubleValue(value));
+        adjust(2);
+    }
+
+    public void sconst(String value) {
+        ldc(pool.string(value), 1);
+    }
+
+    private void ldc(int index, int size) {
+        if (index < 256) {
+            write(LDC);
+            write(index);
+        } else {
+            write(LDC_W);
+            writeShort(index);
+        }
+        adjust(size);
+    }
+
+    // Loads and stores of local variables
+    public void varInsn(int opcode, int index) {
+        if (index > 255) throw new LimitExceeded("Too many local variables.");
+        write(opcode);
+        write(index);
+
+        switch (opcode) {
+            case ILOAD: case ALOAD:
+                adjust(1);
+                break;
+            case DLOAD:
+                adjust(2);
+                break;
+            case ISTORE: case ASTORE:
+                adjust(-1);
+                break;
+            case DSTORE:
+                adjust(-2);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported instruction " + opcode);
+        }
+
+        int size = (opcode == DLOAD || opcode == DSTORE) ? 2 : 1;
+        maxLocals = Math.max(maxLocals, index + size);
+    }
+
+    // Instructions that take a class, e.g. checkcast
+    public void typeInsn(int opcode, String internalName) {
+        write(opcode);
+        writeShort(pool.classRef(internalName));
+        // anewarray pops the length and pushes the array, checkcast and
+        // instanceof replace the reference on top of the stack
+    }
+
+    public void fieldInsn(int opcode, String owner, String name, String descriptor) {
+        write(opcode);
+        writeShort(pool.fieldRef(owner, name, descriptor));
+
+        int size = slots(descriptor);
+        adjust(opcode == GETSTATIC ? size : -size);
+    }
+
+    public void methodInsn(int opcode, String owner, String name, String descriptor) {
+        boolean isInterface = opcode == INVOKEINTERFACE;
+        write(opcode);
+        writeShort(pool.methodRef(owner, name, descriptor, isInterface));
+
+        int argumentSlots = argumentSlots(descriptor);
+        if (isInterface) {
+            write(argumentSlots + 1);
+            write(0);
+        }
+
+        int returnSlots = slots(descriptor.substring(descriptor.indexOf(')') + 1));
+        int receiver = opcode == INVOKESTATIC ? 0 : 1;
+        adjust(returnSlots - argumentSlots - receiver);
+    }
+
+    public void jump(int opcode, Label label) {
+        int offset = length;
+        write(opcode);
+        if (label.offset != -1) {
+            int distance = label.offset - offset;
+            if (distance < Short.MIN_VALUE) throw new LimitExceeded("Jump too far.");
+            writeShort(distance);
+        } else {
+            label.pendingJumps.add(offset);
+            writeShort(0);
+        }
+
+        if (opcode != GOTO) adjust(-1);
+        if (label.stackDepth == -1) label.stackDepth = stackDepth;
+        if (opcode == GOTO) stackDepth = -1;
+    }
+
+    // Places the label at the current position and points the jumps that
+    // were waiting for it here.
+    public void label(Label label) {
+        label.offset = length;
+        for (int jump : label.pendingJumps) {
+            int distance = label.offset - jump;
+            if (distance > Short.MAX_VALUE) throw new LimitExceeded("Jump too far.");
+            code[jump + 1] = (byte) (distance >>> 8);
+            code[jump + 2] = (byte) distance;
+        }
+        label.pendingJumps.clear();
+
+        if (stackDepth == -1) {
+            stackDepth = label.stackDepth == -1 ? 0 : label.stackDepth;
+        } else {
+            label.stackDepth = stackDepth;
+        }
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(code, length);
+    }
+
+    private void adjust(int delta) {
+        if (stackDepth == -1) return;
+        stackDepth += delta;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void write(int b) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) b;
+    }
+
+    private void writeShort(int value) {
+        write(value >>> 8);
+        write(value);
+    }
+
+    private static int slots(String descriptor) {
+        char type = descriptor.charAt(0);
+        if (type == 'V') return 0;
+        if (type == 'D' || type == 'J') return 2;
+        return 1;
+    }
+
+    static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            if (type == 'D' || type == 'J') {
+                slots += 2;
+            } else {
+                slots += 1;
+            }
+
+            // Skip over the rest of array and class types
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,140 @@
+package com.craftinginterpreters.lox.jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// The constant pool of a class file. Every entry is written only once,
+// adding an equal entry again returns the index of the existing one.
+class ConstantPool {
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> indices = new HashMap<>();
+    // Index 0 is unused, and doubles take up two indices
+    private int count = 1;
+
+    int utf8(String value) {
+        Integer index = indices.get("U" + value);
+        if (index != null) return index;
+
+        try {
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return add("U" + value, 1);
+    }
+
+    int integer(int value) {
+        Integer index = indices.get("I" + value);
+        if (index != null) return index;
+
+        write(CONSTANT_INTEGER);
+        writeInt(value);
+        return add("I" + value, 1);
+    }
+
+    int doubleValue(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = indices.get("D" + bits);
+        if (index != null) return index;
+
+        write(CONSTANT_DOUBLE);
+        writeInt((int) (bits >>> 32));
+        writeInt((int) bits);
+        return add("D" + bits, 2);
+    }
+
+    int classRef(String internalName) {
+        return reference(CONSTANT_CLASS, internalName, utf8(internalName));
+    }
+
+    int string(String value) {
+        return reference(CONSTANT_STRING, value, utf8(value));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor, boolean isInterface) {
+        int tag = isInterface ? CONSTANT_INTERFACE_METHODREF : CONSTANT_METHODREF;
+        return memberRef(tag, owner, name, descriptor);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + " " + descriptor;
+        Integer index = indices.get(key);
+        if (index != null) return index;
+
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        write(CONSTANT_NAME_AND_TYPE);
+        writeShort(nameIndex);
+        writeShort(descriptorIndex);
+        return add(key, 1);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + " " + descriptor;
+        Integer index = indices.get(key);
+        if (index != null) return index;
+
+        int classIndex = classRef(owner);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        write(tag);
+        writeShort(classIndex);
+        writeShort(nameAndTypeIndex);
+        return add(key, 1);
+    }
+
+    // Entries that point to a single UTF8 entry
+    private int reference(int tag, String value, int utf8Index) {
+        String key = tag + value;
+        Integer index = indices.get(key);
+        if (index != null) return index;
+
+        write(tag);
+        writeShort(utf8Index);
+        return add(key, 1);
+    }
+
+    private int add(String key, int size) {
+        int index = count;
+        indices.put(key, index);
+        count += size;
+        return index;
+    }
+
+    void writeTo(DataOutputStream output) throws IOException {
+        output.writeShort(count);
+        bytes.writeTo(output);
+    }
+
+    private void write(int b) {
+        bytes.write(b);
+    }
+
+    private void writeShort(int value) {
+        bytes.write(value >>> 8);
+        bytes.write(value);
+    }
+
+    private void writeInt(int value) {
+        writeShort(value >>> 16);
+        writeShort(value & 0xffff);
+    }
+}
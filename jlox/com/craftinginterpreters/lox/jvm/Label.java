@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A position in the code of a method that jumps can target before it is
+// known. Jumps to a label that is not placed yet are patched once it is.
+public class Label {
+    int offset = -1;
+    // Operand stack depth at the label, -1 until a jump or the code reaches it
+    int stackDepth = -1;
+    // Offsets of the jump instructions waiting for this label
+    final List<Integer> pendingJumps = new ArrayList<>();
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox.jvm;
+
+// Thrown when a method outgrows what the class file format can express,
+// e.g. a jump across more than 32767 bytes of code. Unlike other failures
+// this is not a bug of the code generator, the source is just too large.
+public class LimitExceeded extends RuntimeException {
+    public LimitExceeded(String message) {
+        super(message);
+    }
+}
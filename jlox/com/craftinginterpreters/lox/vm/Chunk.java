@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.LoxString;
+import com.craftinginterpreters.lox.Symbol;
+
+// A sequence of bytecode along with the constants that it refers to
+class Chunk {
+    // Array of byte-sized instructions
+    byte[] code = new byte[8];
+    // Number of instructions stored
+    int count = 0;
+    // An integer array that parallels each byte code to track its corresponding line number
+    int[] lines = new int[8];
+
+    private final List<Object> constantList = new ArrayList<>();
+    // Identifiers are referenced over and over again, so names, strings and numbers
+    // share a single constant slot per distinct value.
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+    // Snapshot of constantList that the VM reads from, built once the
+    // chunk is fully compiled.
+    Object[] constants;
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = b;
+        lines[count] = line;
+        count++;
+    }
+
+    // Returns the offset in which the value was written
+    // in the constants array
+    int addConstant(Object value) {
+        boolean shareable = value instanceof Symbol || value instanceof LoxString
+                || value instanceof Double || value instanceof Long;
+        if (shareable) {
+            Integer existing = constantIndex.get(value);
+            if (existing != null) return existing;
+        }
+
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (shareable) constantIndex.put(value, index);
+        return index;
+    }
+
+    void seal() {
+        constants = constantList.toArray();
+    }
+}
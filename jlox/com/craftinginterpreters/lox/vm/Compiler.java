@@ -0,0 +1,677 @@
+package com.craftinginterpreters.lox.vm;
+
+import static com.craftinginterpreters.lox.vm.OpCode.*;
+
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Lox;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Symbol;
+import com.craftinginterpreters.lox.Token;
+
+// Compiles a resolved syntax tree into bytecode for the VM. The Resolver
+// has already reported static errors by the time we get here, so the
+// only errors left to report are the limits of the bytecode format.
+public class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int UINT8_COUNT = 256;
+
+    private enum FunctionType {
+        FUNCTION, INITIALIZER, METHOD, SCRIPT
+    }
+
+    private static class Local {
+        final String name;
+        // This depth matches the scope depth of the block
+        // where the local variable was declared, -1 until
+        // the variable has been initialized.
+        int depth;
+        // Is this local captured by any later nested fn declaration
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    // Per function compilation state
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function = new ObjFunction();
+        // Allows the compiler to known when it's compiling
+        // top level code versus the body of a function
+        final FunctionType type;
+
+        // Array of all locals that are in scope during each point
+        // of the compilation process
+        final Local[] locals = new Local[UINT8_COUNT];
+        int localCount = 0;
+
+        final Upvalue[] upvalues = new Upvalue[UINT8_COUNT];
+
+        // Number blocks surrounding current bit of code we
+        // are currently compiling, zero is the global scope.
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, FunctionType type) {
+            this.enclosing = enclosing;
+            this.type = type;
+        }
+    }
+
+    private static class ClassState {
+        final ClassState enclosing;
+        boolean hasSuperclass = false;
+
+        ClassState(ClassState enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private FunctionState current = null;
+    private ClassState currentClass = null;
+    // Line of the token that was most recently seen, used to
+    // annotate emitted bytecode.
+    private int line = 1;
+    private boolean hadError = false;
+
+    // Returns the function that wraps the top level code, or null
+    // if the program exceeded one of the VM's limits.
+    public ObjFunction compile(List<Stmt> statements) {
+        initCompiler(FunctionType.SCRIPT, null);
+
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+
+        ObjFunction function = endCompiler();
+        return hadError ? null : function;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void error(String message) {
+        Lox.error(line, message);
+        hadError = true;
+    }
+
+    private Chunk currentChunk() {
+        return current.function.chunk;
+    }
+
+    private void emitByte(byte b) {
+        currentChunk().write(b, line);
+    }
+
+    private void emitBytes(byte byte1, byte byte2) {
+        emitByte(byte1);
+        emitByte(byte2);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OP_LOOP);
+
+        // +2 to take into account the operands of OP_LOOP
+        int offset = currentChunk().count - loopStart + 2;
+        if (offset > 0xffff) error("Loop body too large.");
+
+        emitByte((byte) ((offset >> 8) & 0xff));
+        emitByte((byte) (offset & 0xff));
+    }
+
+    // Emits a jump with a placeholder offset and returns the
+    // offset of the placeholder so that it can be patched later
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitByte((byte) 0xff);
+        emitByte((byte) 0xff);
+        return currentChunk().count - 2;
+    }
+
+    private void emitReturn() {
+        // Initializers implicitly return the instance, which lives in slot 0
+        if (current.type == FunctionType.INITIALIZER) {
+            emitBytes(OP_GET_LOCAL, (byte) 0);
+        } else {
+            emitByte(OP_NIL);
+        }
+        emitByte(OP_RETURN);
+    }
+
+    private byte makeConstant(Object value) {
+        int constant = currentChunk().addConstant(value);
+        if (constant >= UINT8_COUNT) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+        return (byte) constant;
+    }
+
+    private void emitConstant(Object value) {
+        emitBytes(OP_CONSTANT, makeConstant(value));
+    }
+
+    private void patchJump(int offset) {
+        // -2 to adjust for the bytecode for the jump offset itself
+        int jump = currentChunk().count - offset - 2;
+
+        if (jump > 0xffff) {
+            error("Too much code to jump over.");
+        }
+
+        currentChunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        currentChunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void initCompiler(FunctionType type, String name) {
+        current = new FunctionState(current, type);
+        current.function.name = name;
+
+        // The compiler claims stack slot zero for the VM's own internal use,
+        // in methods it holds the receiver that 'this' refers to.
+        String slotZero = type == FunctionType.FUNCTION || type == FunctionType.SCRIPT ? "" : "this";
+        current.locals[current.localCount++] = new Local(slotZero, 0);
+    }
+
+    private ObjFunction endCompiler() {
+        emitReturn();
+        ObjFunction function = current.function;
+        function.chunk.seal();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        // Pop all locals that belong to the scope that just ended, hoisting
+        // the ones that were captured by closures to the heap.
+        while (current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth) {
+            if (current.locals[current.localCount - 1].isCaptured) {
+                emitByte(OP_CLOSE_UPVALUE);
+            } else {
+                emitByte(OP_POP);
+            }
+            current.localCount--;
+        }
+    }
+
+    private byte identifierConstant(String name) {
+        return makeConstant(Symbol.intern(name));
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.localCount - 1; i >= 0; i--) {
+            if (state.locals[i].name.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        int upvalueCount = state.function.upvalueCount;
+
+        // A closure may reference the same variable multiple times
+        for (int i = 0; i < upvalueCount; i++) {
+            Upvalue upvalue = state.upvalues[i];
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (upvalueCount == UINT8_COUNT) {
+            error("Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues[upvalueCount] = new Upvalue(index, isLocal);
+        return state.function.upvalueCount++;
+    }
+
+    // Looks for a local variable declared in any of the surrounding functions,
+    // returning the index of the upvalue that refers to it or -1 if it is global.
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private void addLocal(String name) {
+        if (current.localCount == UINT8_COUNT) {
+            error("Too many local variables in function.");
+            return;
+        }
+
+        current.locals[current.localCount++] = new Local(name, -1);
+    }
+
+    // Globals are late bound and hence are not declared, the
+    // Resolver has already rejected duplicate local declarations.
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name.lexeme);
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals[current.localCount - 1].depth = current.scopeDepth;
+    }
+
+    // The value of a local variable is simply the value left on the stack,
+    // globals have to be stored in the VM's table of globals.
+    private void defineVariable(String name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+
+        emitBytes(OP_DEFINE_GLOBAL, identifierConstant(name));
+    }
+
+    private void namedVariable(String name, Expr assignedValue) {
+        byte getOp, setOp;
+        int arg = resolveLocal(current, name);
+
+        if (arg != -1) {
+            getOp = OP_GET_LOCAL;
+            setOp = OP_SET_LOCAL;
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            getOp = OP_GET_UPVALUE;
+            setOp = OP_SET_UPVALUE;
+        } else {
+            arg = identifierConstant(name) & 0xff;
+            getOp = OP_GET_GLOBAL;
+            setOp = OP_SET_GLOBAL;
+        }
+
+        if (assignedValue != null) {
+            compile(assignedValue);
+            emitBytes(setOp, (byte) arg);
+        } else {
+            emitBytes(getOp, (byte) arg);
+        }
+    }
+
+    private void argumentList(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    private void function(Stmt.Function stmt, FunctionType type) {
+        initCompiler(type, stmt.name.lexeme);
+        beginScope();
+
+        current.function.arity = stmt.params.size();
+        for (Token param : stmt.params) {
+            declareVariable(param);
+            defineVariable(param.lexeme);
+        }
+
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+
+        // No need for an endScope() since the VM discards the
+        // function's stack window when it returns.
+        FunctionState state = current;
+        ObjFunction function = endCompiler();
+        line = stmt.name.line;
+        emitBytes(OP_CLOSURE, makeConstant(function));
+
+        // Tell the VM where each upvalue of the new closure should be captured from
+        for (int i = 0; i < function.upvalueCount; i++) {
+            emitByte((byte) (state.upvalues[i].isLocal ? 1 : 0));
+            emitByte((byte) state.upvalues[i].index);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitByte(OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OP_JUMP_IF_FALSE);
+        emitByte(OP_POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OP_JUMP);
+        patchJump(thenJump);
+        emitByte(OP_POP);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitByte(OP_PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitByte(OP_NIL);
+        }
+
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = currentChunk().count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OP_JUMP_IF_FALSE);
+        emitByte(OP_POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitByte(OP_POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        declareVariable(stmt.name);
+        // Mark the function as initialized straight away so that
+        // it can refer to itself recursively
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        byte nameConstant = identifierConstant(stmt.name.lexeme);
+        declareVariable(stmt.name);
+
+        emitBytes(OP_CLASS, nameConstant);
+        defineVariable(stmt.name.lexeme);
+
+        ClassState classState = new ClassState(currentClass);
+        currentClass = classState;
+
+        if (stmt.superclass != null) {
+            namedVariable(stmt.superclass.name.lexeme, null);
+
+            // Methods of a subclass capture their superclass in a local
+            // scope named 'super'
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            namedVariable(stmt.name.lexeme, null);
+            emitByte(OP_INHERIT);
+            classState.hasSuperclass = true;
+        }
+
+        // Load the class back onto the stack so that methods can be bound to it
+        namedVariable(stmt.name.lexeme, null);
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                type = FunctionType.INITIALIZER;
+            }
+            function(method, type);
+            emitBytes(OP_METHOD, identifierConstant(method.name.lexeme));
+        }
+
+        emitByte(OP_POP);
+
+        if (classState.hasSuperclass) {
+            endScope();
+        }
+
+        currentClass = currentClass.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitByte(OP_RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL:    emitBytes(OP_EQUAL, OP_NOT); break;
+            case EQUAL_EQUAL:   emitByte(OP_EQUAL); break;
+            case GREATER:       emitByte(OP_GREATER); break;
+            case GREATER_EQUAL: emitByte(OP_GREATER_EQUAL); break;
+            case LESS:          emitByte(OP_LESS); break;
+            case LESS_EQUAL:    emitByte(OP_LESS_EQUAL); break;
+            case PLUS:          emitByte(OP_ADD); break;
+            case MINUS:         emitByte(OP_SUBTRACT); break;
+            case STAR:          emitByte(OP_MULTIPLY); break;
+            case SLASH:         emitByte(OP_DIVIDE); break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitByte(OP_NIL);
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            emitByte(OP_TRUE);
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            emitByte(OP_FALSE);
+        } else if (expr.value instanceof Double && VM.isInteger((double) expr.value)) {
+            // Whole numbers are computed with as longs, see VM.values
+            emitConstant((long) (double) expr.value);
+        } else {
+            emitConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case BANG:  emitByte(OP_NOT); break;
+            case MINUS: emitByte(OP_NEGATE); break;
+            default:
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        namedVariable(expr.name.lexeme, null);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+
+        switch (expr.operator.type) {
+            case AND: {
+                // Short circuit if the left operand is falsey,
+                // leaving it on the stack as the result
+                int endJump = emitJump(OP_JUMP_IF_FALSE);
+                emitByte(OP_POP);
+                compile(expr.right);
+                patchJump(endJump);
+                break;
+            }
+            default: {
+                int elseJump = emitJump(OP_JUMP_IF_FALSE);
+                int endJump = emitJump(OP_JUMP);
+
+                patchJump(elseJump);
+                emitByte(OP_POP);
+
+                compile(expr.right);
+                patchJump(endJump);
+                break;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        // Method calls are compiled to a single instruction that
+        // avoids materializing a bound method
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            byte name = identifierConstant(get.name.lexeme);
+            argumentList(expr.arguments);
+            line = expr.paren.line;
+            emitBytes(OP_INVOKE, name);
+            emitByte((byte) expr.arguments.size());
+            return null;
+        }
+
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            byte name = identifierConstant(superExpr.method.lexeme);
+            namedVariable("this", null);
+            argumentList(expr.arguments);
+            namedVariable("super", null);
+            line = expr.paren.line;
+            emitBytes(OP_SUPER_INVOKE, name);
+            emitByte((byte) expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        argumentList(expr.arguments);
+        line = expr.paren.line;
+        emitBytes(OP_CALL, (byte) expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitBytes(OP_GET_PROPERTY, identifierConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitBytes(OP_SET_PROPERTY, identifierConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        namedVariable("this", null);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        byte name = identifierConstant(expr.method.lexeme);
+
+        namedVariable("this", null);
+        namedVariable("super", null);
+        emitBytes(OP_GET_SUPER, name);
+        return null;
+    }
+}
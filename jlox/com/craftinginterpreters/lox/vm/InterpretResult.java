@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox.vm;
+
+// Compiler reports static errors and VM detects runtime errors
+public enum InterpretResult {
+    INTERPRET_OK,
+    INTERPRET_COMPILE_ERROR,
+    INTERPRET_RUNTIME_ERROR,
+}
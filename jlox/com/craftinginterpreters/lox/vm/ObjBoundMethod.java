@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox.vm;
+
+// A method that has been accessed off an instance without
+// being called immediately, it remembers the instance it
+// was accessed from.
+class ObjBoundMethod {
+    final Object receiver;
+    final ObjClosure method;
+
+    ObjBoundMethod(Object receiver, ObjClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Symbol;
+
+class ObjClass {
+    final String name;
+    final Map<Symbol, ObjClosure> methods = new HashMap<>();
+    // The "init" method, kept aside so that calling the class skips the lookup
+    ObjClosure initializer;
+
+    ObjClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
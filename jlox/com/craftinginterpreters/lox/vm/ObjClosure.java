@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox.vm;
+
+// Runtime wrapper around a function along with the
+// variables it captured from its surrounding scopes
+class ObjClosure {
+    final ObjFunction function;
+    final ObjUpvalue[] upvalues;
+
+    ObjClosure(ObjFunction function) {
+        this.function = function;
+        this.upvalues = new ObjUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.vm;
+
+// Functions are first-class in Lox and hence they
+// need to be represented as objects
+class ObjFunction {
+    // Number of parameters this function accepts
+    int arity = 0;
+    // Number of upvalues defined
+    int upvalueCount = 0;
+    final Chunk chunk = new Chunk();
+    // Function name, useful for runtime error reporting.
+    // Top level code has no name.
+    String name;
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return String.format("<fn %s>", name);
+    }
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.Symbol;
+
+class ObjInstance {
+    final ObjClass klass;
+    final Map<Symbol, Object> fields = new HashMap<>();
+
+    ObjInstance(ObjClass klass) {
+        this.klass = klass;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s instance", klass.name);
+    }
+}
@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox.vm;
+
+class ObjNative {
+    interface NativeFn {
+        // Arguments are boxed, in the same representation as globals and fields
+        Object call(Object[] args);
+    }
+
+    final int arity;
+    final NativeFn function;
+
+    ObjNative(int arity, NativeFn function) {
+        this.arity = arity;
+        this.function = function;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
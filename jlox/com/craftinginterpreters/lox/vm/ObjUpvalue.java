@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox.vm;
+
+// A captured variable. While open it refers to a slot in the VM's value
+// stack, once closed it owns the value itself.
+class ObjUpvalue {
+    // Index of the stack slot this upvalue refers to, or -1 once closed
+    int location;
+    // Value that is owned by this object after the upvalue has been
+    // closed, split the same way as a slot of the VM's value stack
+    long closedValue;
+    Object closedRef;
+    // Next one in the VM's linked list of open upvalues
+    ObjUpvalue next;
+
+    ObjUpvalue(int location) {
+        this.location = location;
+    }
+}
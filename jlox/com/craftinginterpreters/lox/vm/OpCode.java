@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox.vm;
+
+// Defines the type of the bytecode, e.g. add, subtract,
+// variable lookup etc. Mirrors the OpCode enum in clox's chunk.h.
+final class OpCode {
+    static final byte OP_CONSTANT = 0;
+    // Special literals
+    static final byte OP_NIL = 1;
+    static final byte OP_TRUE = 2;
+    static final byte OP_FALSE = 3;
+    static final byte OP_POP = 4;
+    // Negates a boolean
+    static final byte OP_NOT = 5;
+    // Negates a numerical value
+    static final byte OP_NEGATE = 6;
+    // Prints a value
+    static final byte OP_PRINT = 7;
+
+    static final byte OP_JUMP = 8;
+    // Jumps a certain amount of code if the last value
+    // on the stack is false
+    static final byte OP_JUMP_IF_FALSE = 9;
+    static final byte OP_LOOP = 10;
+    static final byte OP_CALL = 11;
+    // Directly invoking a method on a call
+    static final byte OP_INVOKE = 12;
+    // Directly invoking a super class method
+    static final byte OP_SUPER_INVOKE = 13;
+    // Define a closure that is wrapped around a function
+    static final byte OP_CLOSURE = 14;
+    static final byte OP_CLOSE_UPVALUE = 15;
+    // Return from current function
+    static final byte OP_RETURN = 16;
+
+    // Comparison operators, jlox compares >= and <= directly rather
+    // than negating < and > so that NaN behaves the same in both engines.
+    static final byte OP_GREATER = 17;
+    static final byte OP_GREATER_EQUAL = 18;
+    static final byte OP_LESS = 19;
+    static final byte OP_LESS_EQUAL = 20;
+    static final byte OP_DEFINE_GLOBAL = 21;
+    static final byte OP_GET_LOCAL = 22;
+    static final byte OP_GET_GLOBAL = 23;
+    static final byte OP_SET_LOCAL = 24;
+    static final byte OP_SET_GLOBAL = 25;
+    static final byte OP_GET_UPVALUE = 26;
+    static final byte OP_SET_UPVALUE = 27;
+    static final byte OP_GET_PROPERTY = 28;
+    static final byte OP_SET_PROPERTY = 29;
+    static final byte OP_GET_SUPER = 30;
+    static final byte OP_EQUAL = 31;
+
+    // Arithmetic
+    static final byte OP_ADD = 32;
+    static final byte OP_SUBTRACT = 33;
+    static final byte OP_MULTIPLY = 34;
+    static final byte OP_DIVIDE = 35;
+    static final byte OP_CLASS = 36;
+    static final byte OP_INHERIT = 37;
+    static final byte OP_METHOD = 38;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,851 @@
+package com.craftinginterpreters.lox.vm;
+
+import static com.craftinginterpreters.lox.vm.OpCode.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.LoxString;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Symbol;
+
+// A stack based virtual machine that executes the bytecode produced by
+// the Compiler, it is an alternative to the tree-walking Interpreter.
+public class VM {
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+
+    // A callframe represents a single ongoing function call
+    private static class CallFrame {
+        // The closure that contains the fn that is being called
+        ObjClosure closure;
+        // Index of the instruction that will be executed next, after returning
+        // from a function call the VM resumes at the ip of the caller's CallFrame
+        int ip;
+        // Index of the first slot in the VM's value stack that
+        // this function can use
+        int slots;
+    }
+
+    // Thrown to unwind the dispatch loop once a runtime error was detected
+    private static class RuntimeError extends RuntimeException {
+        RuntimeError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    // Current height of the CallFrame stack, i.e. the number
+    // of ongoing function calls
+    private int frameCount = 0;
+
+    // Tags that mark a slot of the value stack as holding a primitive
+    private static final Object NUMBER = new Object();
+    private static final Object INTEGER = new Object();
+    private static final Object BOOLEAN = new Object();
+
+    // Whole numbers up to this magnitude are held exactly by a double, so a
+    // long in that range is the same Lox number as its double
+    static final long MAX_INTEGER = 1L << 53;
+
+    // The value stack is split into two parallel arrays so that numbers and
+    // booleans never need to be boxed while they live on it. A number is kept
+    // in values as the bits of its double and a boolean as 0 or 1, while refs
+    // holds the NUMBER or BOOLEAN tag for them. Any other value is kept in
+    // refs itself, with nil being null. Values are only boxed when they leave
+    // the stack for a global, a field or a native function.
+    //
+    // Whole numbers from the constants of a chunk are kept in values as a
+    // long with the INTEGER tag instead, and arithmetic on two of them stays
+    // in longs as long as the result is a whole number within MAX_INTEGER.
+    // Other results, like overflowing products and most quotients, and
+    // arithmetic that involves a double continue as doubles, so counters and
+    // indexes are computed with longs without changing what Lox sees. Such
+    // a number is boxed as a Long for globals and fields, so that it comes
+    // back as one, and only turned into a double for native functions and
+    // printing.
+    private final long[] values = new long[STACK_MAX];
+    private final Object[] refs = new Object[STACK_MAX];
+    // stackTop points just past the last element in the arrays,
+    // this way when the stack is empty stackTop would be zero
+    private int stackTop = 0;
+
+    // Table of global variable names and values
+    private final Map<Symbol, Object> globals = new HashMap<>();
+
+    // Head of the sorted linked list of open upvalues
+    private ObjUpvalue openUpvalues = null;
+
+    public VM() {
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        defineNative("clock", 0, args -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    public InterpretResult interpret(List<Stmt> statements) {
+        ObjFunction function = new Compiler().compile(statements);
+        if (function == null) return InterpretResult.INTERPRET_COMPILE_ERROR;
+
+        // This is why the compiler reserves the first local slot for its
+        // internal use, i.e. to store the implicit top level function
+        ObjClosure closure = new ObjClosure(function);
+        push(closure);
+        call(closure, 0);
+
+        try {
+            run();
+            return InterpretResult.INTERPRET_OK;
+        } catch (RuntimeError error) {
+            reportRuntimeError(error.getMessage());
+            return InterpretResult.INTERPRET_RUNTIME_ERROR;
+        }
+    }
+
+    private void resetStack() {
+        // Release references held by the stack so that they can be collected
+        for (int i = 0; i < stackTop; i++) {
+            refs[i] = null;
+        }
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void reportRuntimeError(String message) {
+        System.err.println(message);
+
+        for (int i = frameCount - 1; i >= 0; i--) {
+            CallFrame frame = frames[i];
+            ObjFunction function = frame.closure.function;
+
+            // -1 since IP points to the next instruction to execute
+            int instruction = Math.max(frame.ip - 1, 0);
+            String location = function.name == null ? "script" : function.name + "()";
+            System.err.println(String.format("[line %d] in %s", function.chunk.lines[instruction], location));
+        }
+
+        resetStack();
+    }
+
+    private RuntimeError runtimeError(String format, Object... args) {
+        return new RuntimeError(String.format(format, args));
+    }
+
+    private void defineNative(String name, int arity, ObjNative.NativeFn function) {
+        globals.put(Symbol.intern(name), new ObjNative(arity, function));
+    }
+
+    // Value stack operations
+
+    private void push(Object value) {
+        store(stackTop++, value);
+    }
+
+    private void pushNumber(double value) {
+        values[stackTop] = Double.doubleToRawLongBits(value);
+        refs[stackTop++] = NUMBER;
+    }
+
+    private void pushInteger(long value) {
+        values[stackTop] = value;
+        refs[stackTop++] = INTEGER;
+    }
+
+    // Pushes the result of arithmetic on whole numbers, as a double if it is
+    // out of the range of integers
+    private void pushWhole(long value) {
+        if (value >= -MAX_INTEGER && value <= MAX_INTEGER) {
+            pushInteger(value);
+        } else {
+            pushNumber((double) value);
+        }
+    }
+
+    private void pushBoolean(boolean value) {
+        values[stackTop] = value ? 1 : 0;
+        refs[stackTop++] = BOOLEAN;
+    }
+
+    // pop does not explicitly remove the value, it simply decrements the pointer
+    private Object pop() {
+        return box(--stackTop);
+    }
+
+    private Object peek(int distance) {
+        return box(stackTop - 1 - distance);
+    }
+
+    private double number(int slot) {
+        return Double.longBitsToDouble(values[slot]);
+    }
+
+    // Reads a slot tagged NUMBER or INTEGER as a double
+    private double toDouble(int slot) {
+        if (refs[slot] == INTEGER) return values[slot];
+        return number(slot);
+    }
+
+    private static boolean isNumber(Object ref) {
+        return ref == NUMBER || ref == INTEGER;
+    }
+
+    // Whether the number can be computed with as a long. -0 is whole but
+    // can't, a long has no sign for zero.
+    static boolean isInteger(double number) {
+        long whole = (long) number;
+        return whole == number && whole >= -MAX_INTEGER && whole <= MAX_INTEGER
+                && (whole != 0 || Double.doubleToRawLongBits(number) == 0);
+    }
+
+    private void copy(int from, int to) {
+        values[to] = values[from];
+        refs[to] = refs[from];
+    }
+
+    // Stores a boxed value into a slot, unboxing numbers and booleans
+    private void store(int slot, Object value) {
+        if (value instanceof Double) {
+            values[slot] = Double.doubleToRawLongBits((double) value);
+            refs[slot] = NUMBER;
+        } else if (value instanceof Long) {
+            values[slot] = (long) value;
+            refs[slot] = INTEGER;
+        } else if (value instanceof Boolean) {
+            values[slot] = (boolean) value ? 1 : 0;
+            refs[slot] = BOOLEAN;
+        } else {
+            refs[slot] = value;
+        }
+    }
+
+    private Object box(int slot) {
+        Object ref = refs[slot];
+        if (ref == NUMBER) return number(slot);
+        if (ref == INTEGER) return values[slot];
+        if (ref == BOOLEAN) return values[slot] != 0;
+        return ref;
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw runtimeError("Expected %d arguments but got %d instead.", closure.function.arity, argCount);
+        }
+
+        if (frameCount == FRAMES_MAX) {
+            throw runtimeError("Stack overflow.");
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        // Point the frame's ip to the beginning of the function's bytecode
+        frame.ip = 0;
+
+        // First slot is reserved for the function itself, which
+        // is why we need a -1 here
+        frame.slots = stackTop - argCount - 1;
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure) {
+            call((ObjClosure) callee, argCount);
+        } else if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            // Ensure that in slot 0 of the locals in the stack frame,
+            // we can find the receiver of the method call
+            refs[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            // The new instance takes the place of the class below the arguments,
+            // once the initializer returns it will be at the top of the stack
+            refs[stackTop - argCount - 1] = new ObjInstance(klass);
+
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount);
+            } else if (argCount != 0) {
+                throw runtimeError("Expected 0 arguments but got %d instead.", argCount);
+            }
+        } else if (callee instanceof ObjNative) {
+            ObjNative nativeFn = (ObjNative) callee;
+            if (argCount != nativeFn.arity) {
+                throw runtimeError("Expected %d arguments but got %d instead.", nativeFn.arity, argCount);
+            }
+
+            Object[] args = new Object[argCount];
+            for (int i = 0; i < argCount; i++) {
+                int slot = stackTop - argCount + i;
+                args[i] = refs[slot] == INTEGER ? (Object) (double) values[slot] : box(slot);
+            }
+
+            Object result = nativeFn.function.call(args);
+            // Note that the function object itself will be the first value
+            // in the stack frame, which is why we need the +1 here
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw runtimeError("Can only call function and classes.");
+        }
+    }
+
+    private void invokeFromClass(ObjClass klass, Symbol name, int argCount) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw runtimeError("Undefined property '%s'.", name);
+        }
+        call(method, argCount);
+    }
+
+    // When this invoked, we expect the arguments to the function
+    // to be at the top of the stack followed by the instance
+    // on which this method is invoked from.
+    private void invoke(Symbol name, int argCount) {
+        Object receiver = peek(argCount);
+
+        if (!(receiver instanceof ObjInstance)) {
+            throw runtimeError("Only instances have properties.");
+        }
+
+        ObjInstance instance = (ObjInstance) receiver;
+
+        // Handle the case that this isn't actually a method call, but a field
+        // that contains a callable
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            // Set the field on the stack in place of the receiver
+            // under the argument list
+            store(stackTop - argCount - 1, value);
+            callValue(value, argCount);
+            return;
+        }
+
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    // Looks up the class for a method of a particular name and replaces
+    // the instance at the top of the stack with the bound method.
+    private void bindMethod(ObjClass klass, Symbol name) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw runtimeError("Undefined property '%s'.", name);
+        }
+
+        ObjBoundMethod bound = new ObjBoundMethod(peek(0), method);
+        // Pop the instance and push the bound method
+        pop();
+        push(bound);
+    }
+
+    private ObjUpvalue captureUpvalue(int local) {
+        ObjUpvalue prevUpvalue = null;
+        ObjUpvalue upvalue = openUpvalues;
+
+        while (upvalue != null && upvalue.location > local) {
+            prevUpvalue = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        // If there is an existing upvalue that is the one
+        // we are searching for
+        if (upvalue != null && upvalue.location == local) {
+            return upvalue;
+        }
+
+        ObjUpvalue createdUpvalue = new ObjUpvalue(local);
+        createdUpvalue.next = upvalue;
+
+        if (prevUpvalue == null) {
+            openUpvalues = createdUpvalue;
+        } else {
+            prevUpvalue.next = createdUpvalue;
+        }
+        return createdUpvalue;
+    }
+
+    // Given the index of a stack slot, this closes all open
+    // upvalues that point to that slot or above it on the stack
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            // We simply make the Upvalue own the value of the closed upvalue
+            upvalue.closedValue = values[upvalue.location];
+            upvalue.closedRef = refs[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void pushUpvalue(ObjUpvalue upvalue) {
+        if (upvalue.location == -1) {
+            values[stackTop] = upvalue.closedValue;
+            refs[stackTop++] = upvalue.closedRef;
+        } else {
+            copy(upvalue.location, stackTop++);
+        }
+    }
+
+    private void writeUpvalue(ObjUpvalue upvalue, int slot) {
+        if (upvalue.location == -1) {
+            upvalue.closedValue = values[slot];
+            upvalue.closedRef = refs[slot];
+        } else {
+            copy(slot, upvalue.location);
+        }
+    }
+
+    // Top of the stack is a closure followed by a class
+    private void defineMethod(Symbol name) {
+        ObjClosure method = (ObjClosure) peek(0);
+        ObjClass klass = (ObjClass) peek(1);
+
+        klass.methods.put(name, method);
+        if (name == Symbol.INIT) klass.initializer = method;
+        // Pop the closure, but we leave the class there
+        // as there might be more methods
+        pop();
+    }
+
+    // nil and false are falsey, everything else is truthy
+    private boolean isFalsey(int slot) {
+        Object ref = refs[slot];
+        if (ref == null) return true;
+        if (ref == BOOLEAN) return values[slot] == 0;
+        return false;
+    }
+
+    private boolean valuesEqual(int a, int b) {
+        Object refA = refs[a];
+        Object refB = refs[b];
+        if (refA == INTEGER && refB == INTEGER) return values[a] == values[b];
+        if (isNumber(refA)) {
+            if (!isNumber(refB)) return false;
+            // Compare numbers the way Double.equals does, where NaN
+            // equals itself and 0 does not equal -0
+            return Double.doubleToLongBits(toDouble(a)) == Double.doubleToLongBits(toDouble(b));
+        }
+        if (refA == BOOLEAN) {
+            return refB == BOOLEAN && values[a] == values[b];
+        }
+        if (refA == null) return refB == null;
+
+        return refA.equals(refB);
+    }
+
+    private static String stringify(Object value) {
+        if (value == null) return "nil";
+
+        // Whole numbers print as the double they stand for
+        if (value instanceof Long) value = (double) (long) value;
+
+        if (value instanceof Double) {
+            String text = value.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return value.toString();
+    }
+
+    private void checkNumberOperands() {
+        if (isNumber(refs[stackTop - 1]) && isNumber(refs[stackTop - 2])) return;
+        throw runtimeError("Operands must be numbers");
+    }
+
+    private void compareIntegers(byte instruction) {
+        long b = values[--stackTop];
+        long a = values[--stackTop];
+        switch (instruction) {
+            case OP_GREATER: pushBoolean(a > b); break;
+            case OP_GREATER_EQUAL: pushBoolean(a >= b); break;
+            case OP_LESS: pushBoolean(a < b); break;
+            default: pushBoolean(a <= b); break;
+        }
+    }
+
+    // Subtracts, multiplies or divides the two whole numbers on top of the
+    // stack. A product that may overflow, as the product of the doubles
+    // tells, or is -0 continues as a double, and so does a quotient that is
+    // not whole or is -0.
+    private void integerArithmetic(byte instruction) {
+        long b = values[--stackTop];
+        long a = values[--stackTop];
+        switch (instruction) {
+            case OP_SUBTRACT:
+                pushWhole(a - b);
+                break;
+            case OP_MULTIPLY: {
+                double product = (double) a * b;
+                if (Math.abs(product) <= MAX_INTEGER && !(product == 0 && (a < 0 || b < 0))) {
+                    pushWhole(a * b);
+                } else {
+                    pushNumber(product);
+                }
+                break;
+            }
+            default: {
+                // Multiplying back is cheaper than the remainder to tell
+                // whether the quotient is whole
+                double quotient = (double) a / b;
+                long whole = (long) quotient;
+                if (b != 0 && whole * b == a && !(a == 0 && b < 0)) {
+                    pushInteger(whole);
+                } else {
+                    pushNumber(quotient);
+                }
+                break;
+            }
+        }
+    }
+
+    private void run() {
+        // Cache the state of the current frame in locals so that the
+        // JIT can keep them in registers
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                // We consume the constant, increment the IP and push the value
+                // to the value stack
+                case OP_CONSTANT:
+                    push(constants[code[ip++] & 0xff]);
+                    break;
+                case OP_NIL: push(null); break;
+                case OP_TRUE: pushBoolean(true); break;
+                case OP_FALSE: pushBoolean(false); break;
+                case OP_POP: stackTop--; break;
+                case OP_GET_LOCAL: {
+                    // frame.slots is the beginning of the stack window that
+                    // this function can access, and slot is an offset relative to that
+                    int slot = code[ip++] & 0xff;
+                    copy(frame.slots + slot, stackTop++);
+                    break;
+                }
+                case OP_SET_LOCAL: {
+                    int slot = code[ip++] & 0xff;
+                    // We do not pop the value since assigment is an
+                    // expression (i.e. it produces a value always)
+                    copy(stackTop - 1, frame.slots + slot);
+                    break;
+                }
+                case OP_GET_GLOBAL: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw runtimeError("Undefined variable '%s'.", name);
+                    }
+                    push(value);
+                    break;
+                }
+                case OP_DEFINE_GLOBAL: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+                    globals.put(name, pop());
+                    break;
+                }
+                // Setting a variable doesn't pop the value off the stack
+                // since assignment is an expression (it could be nested
+                // within some larger expression)
+                case OP_SET_GLOBAL: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+                    // We do not support implicit variable declaration
+                    if (!globals.containsKey(name)) {
+                        frame.ip = ip;
+                        throw runtimeError("Undefined variable '%s'.", name);
+                    }
+                    globals.put(name, peek(0));
+                    break;
+                }
+                case OP_GET_UPVALUE: {
+                    int slot = code[ip++] & 0xff;
+                    pushUpvalue(frame.closure.upvalues[slot]);
+                    break;
+                }
+                case OP_SET_UPVALUE: {
+                    int slot = code[ip++] & 0xff;
+                    writeUpvalue(frame.closure.upvalues[slot], stackTop - 1);
+                    break;
+                }
+                case OP_GET_PROPERTY: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+                    frame.ip = ip;
+
+                    // Instance should be at the top of stack when processing this OP
+                    if (!(refs[stackTop - 1] instanceof ObjInstance)) {
+                        throw runtimeError("Only instances have properties.");
+                    }
+
+                    ObjInstance instance = (ObjInstance) refs[stackTop - 1];
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        // Replace the instance with the value
+                        store(stackTop - 1, value);
+                        break;
+                    }
+
+                    // If what we are trying to access is neither a property
+                    // or a method, we should throw an error
+                    bindMethod(instance.klass, name);
+                    break;
+                }
+                case OP_SET_PROPERTY: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+
+                    // Top of the stack is the value followed by the instance
+                    if (!(refs[stackTop - 2] instanceof ObjInstance)) {
+                        frame.ip = ip;
+                        throw runtimeError("Only instances have fields.");
+                    }
+
+                    ObjInstance instance = (ObjInstance) refs[stackTop - 2];
+                    instance.fields.put(name, peek(0));
+
+                    // Setting properties is an expression, so the value
+                    // takes the place of the instance
+                    copy(stackTop - 1, stackTop - 2);
+                    stackTop--;
+                    break;
+                }
+                case OP_GET_SUPER: {
+                    Symbol name = (Symbol) constants[code[ip++] & 0xff];
+                    frame.ip = ip;
+                    ObjClass superclass = (ObjClass) pop();
+                    bindMethod(superclass, name);
+                    break;
+                }
+                case OP_EQUAL: {
+                    boolean equal = valuesEqual(stackTop - 2, stackTop - 1);
+                    stackTop -= 2;
+                    pushBoolean(equal);
+                    break;
+                }
+                case OP_GREATER:
+                case OP_GREATER_EQUAL:
+                case OP_LESS:
+                case OP_LESS_EQUAL: {
+                    if (refs[stackTop - 1] == INTEGER && refs[stackTop - 2] == INTEGER) {
+                        compareIntegers(instruction);
+                        break;
+                    }
+
+                    frame.ip = ip;
+                    checkNumberOperands();
+                    double b = toDouble(--stackTop);
+                    double a = toDouble(--stackTop);
+                    switch (instruction) {
+                        case OP_GREATER: pushBoolean(a > b); break;
+                        case OP_GREATER_EQUAL: pushBoolean(a >= b); break;
+                        case OP_LESS: pushBoolean(a < b); break;
+                        default: pushBoolean(a <= b); break;
+                    }
+                    break;
+                }
+                // Arithmetic
+                case OP_ADD: {
+                    Object b = refs[stackTop - 1];
+                    Object a = refs[stackTop - 2];
+                    if (a == NUMBER && b == NUMBER) {
+                        double sum = number(stackTop - 2) + number(stackTop - 1);
+                        stackTop -= 2;
+                        pushNumber(sum);
+                    } else if (a == INTEGER && b == INTEGER) {
+                        long sum = values[stackTop - 2] + values[stackTop - 1];
+                        stackTop -= 2;
+                        pushWhole(sum);
+                    } else if (isNumber(a) && isNumber(b)) {
+                        double sum = toDouble(stackTop - 2) + toDouble(stackTop - 1);
+                        stackTop -= 2;
+                        pushNumber(sum);
+                    } else if (a instanceof LoxString && b instanceof LoxString) {
+                        stackTop -= 2;
+                        push(LoxString.concat((LoxString) a, (LoxString) b));
+                    } else {
+                        frame.ip = ip;
+                        throw runtimeError("Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OP_SUBTRACT:
+                case OP_MULTIPLY:
+                case OP_DIVIDE: {
+                    if (refs[stackTop - 1] == INTEGER && refs[stackTop - 2] == INTEGER) {
+                        integerArithmetic(instruction);
+                        break;
+                    }
+
+                    frame.ip = ip;
+                    checkNumberOperands();
+                    double b = toDouble(--stackTop);
+                    double a = toDouble(--stackTop);
+                    switch (instruction) {
+                        case OP_SUBTRACT: pushNumber(a - b); break;
+                        case OP_MULTIPLY: pushNumber(a * b); break;
+                        default: pushNumber(a / b); break;
+                    }
+                    break;
+                }
+                case OP_NOT: {
+                    boolean falsey = isFalsey(stackTop - 1);
+                    stackTop--;
+                    pushBoolean(falsey);
+                    break;
+                }
+                case OP_NEGATE: {
+                    Object ref = refs[stackTop - 1];
+                    if (ref == INTEGER && values[stackTop - 1] != 0) {
+                        values[stackTop - 1] = -values[stackTop - 1];
+                        break;
+                    }
+
+                    if (!isNumber(ref)) {
+                        frame.ip = ip;
+                        throw runtimeError("Operand must be a number");
+                    }
+                    // Negating 0 gives -0, which is a double
+                    double negated = -toDouble(--stackTop);
+                    pushNumber(negated);
+                    break;
+                }
+                case OP_PRINT:
+                    System.out.println(stringify(pop()));
+                    break;
+                case OP_JUMP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 + offset;
+                    break;
+                }
+                case OP_JUMP_IF_FALSE: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (isFalsey(stackTop - 1)) ip += offset;
+                    break;
+                }
+                case OP_LOOP: {
+                    int offset = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2 - offset;
+                    break;
+                }
+                case OP_CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount);
+                    // On a successful function call, there will be a new frame
+                    // for the called function
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_INVOKE: {
+                    Symbol method = (Symbol) constants[code[ip++] & 0xff];
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    invoke(method, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_SUPER_INVOKE: {
+                    Symbol method = (Symbol) constants[code[ip++] & 0xff];
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    ObjClass superclass = (ObjClass) pop();
+                    invokeFromClass(superclass, method, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_CLOSURE: {
+                    ObjFunction function = (ObjFunction) constants[code[ip++] & 0xff];
+                    ObjClosure closure = new ObjClosure(function);
+                    push(closure);
+
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        int isLocal = code[ip++];
+                        int index = code[ip++] & 0xff;
+                        if (isLocal == 1) {
+                            closure.upvalues[i] = captureUpvalue(frame.slots + index);
+                        } else {
+                            // While we are still in the middle of defining this
+                            // function, the current frame belongs to the one that
+                            // encloses the function that we are defining
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    break;
+                }
+                case OP_CLOSE_UPVALUE:
+                    closeUpvalues(stackTop - 1);
+                    stackTop--;
+                    break;
+                case OP_RETURN: {
+                    // Function always returns a value, now that we intend to discard
+                    // the function's entire stack window, we pop the return value.
+                    // It stays in its slot until it is moved down below.
+                    int result = --stackTop;
+
+                    // Close all remaining open upvalues owned by the returning function
+                    closeUpvalues(frame.slots);
+
+                    frameCount--;
+                    // If we are done interpreting everything
+                    if (frameCount == 0) {
+                        pop();
+                        return;
+                    }
+
+                    // Move the return value to where the callee was on the stack
+                    // and discard all slots that it was using for its parameters
+                    copy(result, frame.slots);
+                    for (int i = frame.slots + 1; i <= result; i++) {
+                        refs[i] = null;
+                    }
+                    stackTop = frame.slots + 1;
+
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    break;
+                }
+                case OP_CLASS:
+                    push(new ObjClass(((Symbol) constants[code[ip++] & 0xff]).name));
+                    break;
+                case OP_INHERIT: {
+                    Object superclass = peek(1);
+
+                    if (!(superclass instanceof ObjClass)) {
+                        frame.ip = ip;
+                        throw runtimeError("Superclass must be a class.");
+                    }
+
+                    // Copy the inherited methods down into the subclass before
+                    // its own methods are defined, which may then override them
+                    ObjClass subclass = (ObjClass) peek(0);
+                    subclass.methods.putAll(((ObjClass) superclass).methods);
+                    subclass.initializer = ((ObjClass) superclass).initializer;
+                    // Pop the subclass
+                    pop();
+                    break;
+                }
+                case OP_METHOD:
+                    defineMethod((Symbol) constants[code[ip++] & 0xff]);
+                    break;
+                default:
+                    throw runtimeError("Unknown opcode %d.", instruction);
+            }
+        }
+    }
+}
@@ -13,31 +13,67 @@ public class GenerateAst {
         }
         String outputDir = args[0];
 
+        // Fields after the second colon are not part of the constructor, they
+        // are mutable and filled in by the Resolver or the Interpreter, e.g. the
+        // slot that a local variable occupies or the number of slots a frame
+        // needs.
+        //
+        // Locals live in a slot of their function's frame on the value stack.
+        // When a nested function captures one, the slot holds a Cell with the
+        // variable's value instead, and the closure copies that Cell into its
+        // upvalues. References from the closure use the index of the upvalue.
+        // Globals are looked up by name once, then their Cell is cached in
+        // global, see Globals. A local that is never assigned after its
+        // declaration may be replaced by its initializer, see ConstantFolder.
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign    : Token name, Expr value",
-            "Binary    : Expr left, Token operator, Expr right",
+            "Assign    : Token name, Expr value : int slot, boolean isGlobal, boolean isUpvalue, boolean isCaptured, Cell global",
+            // Operators install the node specialized for their operand types, see BinaryNode
+            "Binary    : Expr left, Token operator, Expr right : BinaryNode node",
             "Grouping  : Expr expression",
             "Literal   : Object value",
-            "Unary     : Token operator, Expr right",
-            "Variable  : Token name",
-            "Logical   : Expr left, Token operator, Expr right",
+            "Unary     : Token operator, Expr right : UnaryNode node",
+            "Variable  : Token name : int slot, boolean isGlobal, boolean isUpvalue, boolean isCaptured, Cell global,"
+                    + " Stmt.Var declaration",
+            "Logical   : Expr left, Token operator, Expr right : LogicalNode node",
             // For function calls, we need the token of the closing paren for error reporting
             "Call      : Expr callee, Token paren, List<Expr> arguments",
-            "Get       : Expr object, Token name",
-            "Set       : Expr object, Token name, Expr value",
-            "This      : Token keyword",
-            "Super     : Token keyword, Token method"
+            // Property accesses remember the shapes they have seen, see InlineCache
+            "Get       : Expr object, Token name : InlineCache cache",
+            "Set       : Expr object, Token name, Expr value : InlineCache cache",
+            "This      : Token keyword : int slot, boolean isUpvalue, boolean isCaptured",
+            // 'super' is always an upvalue of the method, the receiver refers to 'this'
+            "Super     : Token keyword, Token method : int slot, Expr.This receiver"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
             "Expression  : Expr expression",
             "If          : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print       : Expr expression",
-            "Var         : Token name, Expr initializer",
-            "Block       : List<Stmt> statements",
-            "While       : Expr condition, Stmt body",
-            "Function    : Token name, List<Token> params, List<Stmt> body",
-            "Class       : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Var         : Token name, Expr initializer : int slot, boolean isCaptured, boolean isReassigned",
+            // Blocks at the top level, outside of any function, push a frame
+            // for their locals.
+            "Block       : List<Stmt> statements : int frameSize",
+            // Loops know the function they are in, to count its back-edges, and
+            // count their own iterations for on-stack replacement
+            "While       : Token keyword, Expr condition, Stmt body"
+                    + " : Stmt.Function enclosing, int backEdges, volatile CompiledStmt osr",
+            // A call pushes a frame of frameSize slots and wraps the captured
+            // parameters, at the frame slots in capturedParams, into Cells.
+            // Creating the closure copies its upvalues, each one either the
+            // Cell in a slot of the enclosing frame or an upvalue of the
+            // enclosing function.
+            // The body compiled by the ClosureCompiler and the JVM code from
+            // the JvmCompiler, if the function was compiled by either. Both
+            // may be set by the background compiler, see TieredCompiler.
+            "Function    : Token name, List<Token> params, List<Stmt> body"
+                    + " : int slot, boolean isCaptured, int frameSize, int[] capturedParams,"
+                    + " int[] upvalueIndexes, boolean[] upvalueIsLocal,"
+                    + " boolean isMethod, volatile CompiledStmt compiled,"
+                    + " volatile JvmCode jvm, int calls, int backEdges, int tier",
+            // The methods of a subclass capture 'super' from superSlot. At the
+            // top level there is no frame to hold it, so the class pushes one.
+            "Class       : Token name, Expr.Variable superclass, List<Stmt.Function> methods"
+                    + " : int slot, boolean isCaptured, int superSlot, int frameSize",
             // We need the return Token in order when we print errors
             "Return      : Token keyword, Expr value"
         ));
@@ -51,26 +87,29 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println(String.format("abstract class %s {", baseName));
+        writer.println(String.format("public abstract class %s {", baseName));
 
         defineVisitor(writer, baseName, types);
 
         for (String type: types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] parts = type.split(":");
+            String className = parts[0].trim();
+            String fields = parts[1].trim();
+            String mutableFields = parts.length > 2 ? parts[2].trim() : null;
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         // The base accept method
         writer.println();
-        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println(String.format("  static class %s extends %s {", className, baseName));
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+            String mutableFieldList) {
+        writer.println(String.format("  public static class %s extends %s {", className, baseName));
 
         // Constructor
         writer.println(String.format("    %s(%s){", className, fieldList));
@@ -86,21 +125,29 @@ public class GenerateAst {
         // Visitor pattern.
         writer.println();
         writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
+        writer.println("    public <R> R accept(Visitor<R> visitor) {");
         writer.println("      return visitor.visit" +
             className + baseName + "(this);");
         writer.println("    }");
 
-        // Define fields
+        // Define fields. Subexpressions are not final, the ConstantFolder
+        // replaces those it can evaluate with their value.
         for (String field: fields) {
-            writer.println(String.format("    final %s;", field));
+            String modifier = field.startsWith("Expr ") ? "" : "final ";
+            writer.println(String.format("    public %s%s;", modifier, field));
+        }
+
+        if (mutableFieldList != null) {
+            for (String field: mutableFieldList.split(", ")) {
+                writer.println(String.format("    public %s;", field));
+            }
         }
 
         writer.println("  }");
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("  public interface Visitor<R> {");
 
         for (String type: types) {
             String typeName = type.split(":")[0].trim();